@@ -0,0 +1,65 @@
+package LivenessDetect;
+
+import static org.bytedeco.opencv.global.opencv_imgcodecs.imread;
+
+import java.io.File;
+
+import org.bytedeco.opencv.opencv_core.Mat;
+
+// Inputs shared by the benchmarks: the bundled test images and the model directory.
+// The model directory is the liveness.modelDir system property, set by the jmh task of build.gradle
+// to the model directory of the project or to -Pliveness.modelDir, so nothing is downloaded while benchmarking.
+// The SSD and liveness models are not in the repository, the benchmarks needing them fail in their setup
+// with the missing file when they are run without them (the jmh task skips them then).
+final class BenchmarkInputs {
+	static final String REAL_IMAGE = "real_48.png";
+	static final String MASK_IMAGE = "2dmask_2.png";
+
+	private BenchmarkInputs() {}
+
+	static String modelDir()
+	{
+		return System.getProperty("liveness.modelDir", "model");
+	}
+
+	// 8 bit BGR image of the model directory
+	static Mat loadImage(String name)
+	{
+		String path = modelDir() + File.separator + name;
+		Mat image = imread(path);
+		if (image.empty()) {
+			throw new IllegalStateException("can not read benchmark image " + path);
+		}
+		return image;
+	}
+
+	// fail the benchmark's setup when a model file is not in the model directory
+	static void requireModel(String file)
+	{
+		File model = new File(modelDir(), file);
+		if (!model.isFile()) {
+			throw new IllegalStateException("model file " + model + " not found, copy it there or run with"
+					+ " -Pliveness.modelDir=<directory with the models>");
+		}
+	}
+
+	static FaceDetector faceDetector()
+	{
+		requireModel(FaceDetector.CAFFE_MODEL_FILE);
+		FaceDetector detector = new FaceDetector(modelDir(), 1);
+		if (!detector.init()) {
+			throw new IllegalStateException("can not load face detection model from " + modelDir());
+		}
+		return detector;
+	}
+
+	static LivenessDetector livenessDetector() throws Exception
+	{
+		requireModel(LivenessDetector.modelFile);
+		LivenessDetector detector = new LivenessDetector(modelDir(), 1);
+		if (!detector.init()) {
+			throw new IllegalStateException("can not load liveness model from " + modelDir());
+		}
+		return detector;
+	}
+}
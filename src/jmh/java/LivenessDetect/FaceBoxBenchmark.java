@@ -0,0 +1,71 @@
+package LivenessDetect;
+
+import java.util.concurrent.TimeUnit;
+
+import org.bytedeco.opencv.opencv_core.Mat;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+// faceBox geometry of FaceDetector, run for every detected face; the models are not needed
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class FaceBoxBenchmark {
+	private FaceDetector faceDetector;
+	private Mat frame;
+	private faceBox box;
+
+	@Setup
+	public void setup()
+	{
+		faceDetector = new FaceDetector(BenchmarkInputs.modelDir(), 1);
+		frame = BenchmarkInputs.loadImage(BenchmarkInputs.REAL_IMAGE);
+		box = new faceBox(frame.cols() / 4, frame.rows() / 5, frame.cols() * 3 / 4, frame.rows() * 4 / 5);
+	}
+
+	@TearDown
+	public void tearDown()
+	{
+		frame.close();
+	}
+
+	@Benchmark
+	public faceBox moveBox()
+	{
+		return faceDetector.move_box(box, 0, 12);
+	}
+
+	@Benchmark
+	public faceBox expandBox()
+	{
+		return faceDetector.expand_box(box, 20, 20, 15, 30);
+	}
+
+	@Benchmark
+	public faceBox getSquareBox()
+	{
+		return faceDetector.get_square_box(box);
+	}
+
+	@Benchmark
+	public boolean boxInImage()
+	{
+		return faceDetector.box_in_image(box, frame);
+	}
+
+	// expand and square as done for every face area
+	@Benchmark
+	public boolean faceAreaBox()
+	{
+		int height = box.y_bottom - box.y_top;
+		faceBox expanded = faceDetector.expand_box(box, (int) (height * 0.45f), (int) (height * 0.45f),
+				(int) (height * 0.3f), (int) (height * 0.6f));
+		return faceDetector.box_in_image(faceDetector.get_square_box(expanded), frame);
+	}
+}
@@ -0,0 +1,55 @@
+package LivenessDetect;
+
+import java.util.concurrent.TimeUnit;
+
+import org.bytedeco.opencv.opencv_core.Mat;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+
+// SSD face detection of one frame, blob, forward and box parsing
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class FaceDetectorBenchmark {
+	@Param({BenchmarkInputs.REAL_IMAGE, BenchmarkInputs.MASK_IMAGE})
+	public String image;
+
+	private FaceDetector faceDetector;
+	private Mat frame;
+	private final FaceBoxBuffer faceBoxes = new FaceBoxBuffer();
+
+	@Setup
+	public void setup()
+	{
+		faceDetector = BenchmarkInputs.faceDetector();
+		frame = BenchmarkInputs.loadImage(image);
+	}
+
+	@TearDown
+	public void tearDown()
+	{
+		frame.close();
+		faceDetector.close();
+	}
+
+	@Benchmark
+	public int getFaceBoxes()
+	{
+		return faceDetector.getFaceBoxes(frame, 0.89f, faceBoxes);
+	}
+
+	// the allocating variant used by FaceTracker and the single face loops
+	@Benchmark
+	public void getFaceBoxesList(Blackhole bh)
+	{
+		bh.consume(faceDetector.getFaceBoxes(frame, 0.89f, false));
+	}
+}
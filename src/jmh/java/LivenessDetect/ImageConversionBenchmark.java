@@ -0,0 +1,114 @@
+package LivenessDetect;
+
+import java.awt.image.BufferedImage;
+import java.nio.FloatBuffer;
+import java.util.concurrent.TimeUnit;
+
+import ai.djl.ndarray.NDArray;
+import ai.djl.ndarray.NDManager;
+import org.bytedeco.javacpp.Loader;
+import org.bytedeco.javacv.Java2DFrameUtils;
+import org.bytedeco.opencv.opencv_java;
+import org.bytedeco.opencv.opencv_core.Mat;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+// imageUtils conversions between OpenCV Mat, JavaCV Mat and BufferedImage, the ImageConverter copies
+// into reused destinations,
+// and the conversion of a face Mat into model input, MatImage.toNDArray() and LivenessPreprocessor.process();
+// these need the DJL engine, the models are not needed
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ImageConversionBenchmark {
+	@Param({BenchmarkInputs.REAL_IMAGE, BenchmarkInputs.MASK_IMAGE})
+	public String image;
+
+	private Mat frame;
+	private org.opencv.core.Mat openCvFrame;
+	private BufferedImage bufferedImage;
+	private BufferedImage bufferedImageDst;
+	private Mat matDst;
+	private NDManager manager;
+
+	@Setup
+	public void setup()
+	{
+		// native library of the org.opencv classes
+		Loader.load(opencv_java.class);
+		frame = BenchmarkInputs.loadImage(image);
+		// TYPE_3BYTE_BGR, as imageUtils expects
+		bufferedImage = Java2DFrameUtils.toBufferedImage(frame);
+		openCvFrame = imageUtils.bufferedImage2Mat(bufferedImage);
+		bufferedImageDst = ImageConverter.toBufferedImage(frame, null);
+		matDst = ImageConverter.toMat(bufferedImage, null);
+		manager = NDManager.newBaseManager();
+	}
+
+	@TearDown
+	public void tearDown()
+	{
+		manager.close();
+		openCvFrame.release();
+		matDst.close();
+		frame.close();
+	}
+
+	@Benchmark
+	public BufferedImage mat2BufferedImage()
+	{
+		return imageUtils.mat2BufferedImage(openCvFrame);
+	}
+
+	@Benchmark
+	public int bufferedImage2Mat()
+	{
+		org.opencv.core.Mat mat = imageUtils.bufferedImage2Mat(bufferedImage);
+		int rows = mat.rows();
+		mat.release();
+		return rows;
+	}
+
+	@Benchmark
+	public int bufferedImage2JavaCvMat()
+	{
+		try (Mat mat = imageUtils.bufferedImage2JavaCvMat(bufferedImage)) {
+			return mat.rows();
+		}
+	}
+
+	@Benchmark
+	public BufferedImage matToBufferedImageReused()
+	{
+		return ImageConverter.toBufferedImage(frame, bufferedImageDst);
+	}
+
+	@Benchmark
+	public Mat bufferedImageToMatReused()
+	{
+		return ImageConverter.toMat(bufferedImage, matDst);
+	}
+
+	// pixels of the reference NDArray preprocessing; a new MatImage every time, an image keeps its RGB copy
+	@Benchmark
+	public long matImageToNDArray()
+	{
+		try (NDArray array = new MatImage(frame).toNDArray(manager)) {
+			return array.getShape().size();
+		}
+	}
+
+	// what LivenessTranslator does with the BGR face Mat of DetectLivenessFromFrame() before the model runs
+	@Benchmark
+	public FloatBuffer livenessPreprocess()
+	{
+		return LivenessPreprocessor.get().process(frame);
+	}
+}
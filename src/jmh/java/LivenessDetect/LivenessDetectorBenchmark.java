@@ -0,0 +1,50 @@
+package LivenessDetect;
+
+import java.util.concurrent.TimeUnit;
+
+import ai.djl.modality.cv.Image;
+import org.bytedeco.opencv.opencv_core.Mat;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+// Liveness model of one face image, the whole detectLiveness() call.
+// The translator steps on their own are in LivenessTranslatorBenchmark, which runs without the model
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class LivenessDetectorBenchmark {
+	@Param({BenchmarkInputs.REAL_IMAGE, BenchmarkInputs.MASK_IMAGE})
+	public String image;
+
+	private LivenessDetector livenessDetector;
+	private Mat frame;
+	private Image input;
+
+	@Setup
+	public void setup() throws Exception
+	{
+		livenessDetector = BenchmarkInputs.livenessDetector();
+		frame = BenchmarkInputs.loadImage(image);
+		input = MatImageFactory.getInstance().fromImage(frame);
+	}
+
+	@TearDown
+	public void tearDown()
+	{
+		frame.close();
+		livenessDetector.close();
+	}
+
+	@Benchmark
+	public boolean detectLiveness()
+	{
+		return livenessDetector.detectLiveness(input);
+	}
+}
@@ -0,0 +1,87 @@
+package LivenessDetect;
+
+import java.lang.reflect.Proxy;
+import java.util.concurrent.TimeUnit;
+
+import ai.djl.modality.cv.Image;
+import ai.djl.ndarray.NDList;
+import ai.djl.ndarray.NDManager;
+import ai.djl.ndarray.types.Shape;
+import ai.djl.translate.TranslatorContext;
+import org.bytedeco.opencv.opencv_core.Mat;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+// The liveness translator steps around the forward pass on their own; the model is not needed
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class LivenessTranslatorBenchmark {
+	@Param({BenchmarkInputs.REAL_IMAGE, BenchmarkInputs.MASK_IMAGE})
+	public String image;
+
+	private final LivenessTranslator translator = new LivenessTranslator();
+	private NDManager manager;
+	private TranslatorContext ctx;
+	private Mat frame;
+	private Image input;
+	private NDList output;
+
+	@Setup
+	public void setup()
+	{
+		frame = BenchmarkInputs.loadImage(image);
+		input = MatImageFactory.getInstance().fromImage(frame);
+		manager = NDManager.newBaseManager();
+		ctx = newContext(manager);
+		// raw model output, processOutput applies the sigmoid
+		output = new NDList(manager.create(new float[] {0.3f}, new Shape(1)));
+	}
+
+	@TearDown
+	public void tearDown()
+	{
+		output.close();
+		manager.close();
+		frame.close();
+	}
+
+	// the translator only asks its context for the NDManager, the other methods are not needed
+	private static TranslatorContext newContext(NDManager manager)
+	{
+		return (TranslatorContext) Proxy.newProxyInstance(TranslatorContext.class.getClassLoader(),
+				new Class<?>[] {TranslatorContext.class},
+				(proxy, method, args) -> method.getName().equals("getNDManager") ? manager : null);
+	}
+
+	// OpenCV preprocessing of a BGR Mat
+	@Benchmark
+	public int processInput() throws Exception
+	{
+		try (NDList list = translator.processInput(ctx, input)) {
+			return list.size();
+		}
+	}
+
+	// NDArray preprocessing, used for images that are not BGR Mats
+	@Benchmark
+	public int processInputNDArray()
+	{
+		try (NDManager sub = manager.newSubManager()) {
+			return (int) LivenessTranslator.processInputNDArray(sub, input).getShape().get(0);
+		}
+	}
+
+	@Benchmark
+	public Float processOutput() throws Exception
+	{
+		return translator.processOutput(ctx, output);
+	}
+}
@@ -1,56 +1,94 @@
 package LivenessDetect;
 
 import ai.djl.MalformedModelException;
-import ai.djl.modality.cv.BufferedImageFactory;
 import ai.djl.modality.cv.Image;
+import ai.djl.translate.TranslateException;
 import static org.bytedeco.opencv.global.opencv_core.*;
 import static org.bytedeco.opencv.global.opencv_imgproc.*;
 import static org.bytedeco.opencv.global.opencv_imgcodecs.imread;
 import static org.bytedeco.opencv.global.opencv_imgcodecs.imwrite;
+import static org.bytedeco.opencv.global.opencv_videoio.CAP_PROP_FPS;
+import static org.bytedeco.opencv.global.opencv_videoio.CAP_PROP_POS_MSEC;
 
+import org.bytedeco.javacpp.PointerScope;
 import org.bytedeco.javacv.CanvasFrame;
 import org.bytedeco.javacv.FFmpegFrameGrabber;
 import org.bytedeco.javacv.Frame;
 import org.bytedeco.javacv.FrameGrabber;
-import org.bytedeco.javacv.Java2DFrameUtils;
-import org.bytedeco.javacv.OpenCVFrameConverter;
 import org.bytedeco.opencv.opencv_core.Mat;
-import org.bytedeco.opencv.opencv_core.Point;
-import org.bytedeco.opencv.opencv_core.Rect;
-import org.bytedeco.opencv.opencv_core.Scalar;
 import org.bytedeco.opencv.opencv_core.Size;
 import org.bytedeco.opencv.opencv_videoio.VideoCapture;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
 
 public class App {
 	private static final Logger logger = LoggerFactory.getLogger(LivenessDetector.class);
-	private static final OpenCVFrameConverter.ToIplImage converter = new OpenCVFrameConverter.ToIplImage();
-	private static final OpenCVFrameConverter.ToMat toJavaCvMat = new OpenCVFrameConverter.ToMat();
 	private static LivenessDetector livenessDetector;
 	private static FaceDetector faceDetector;
+	private static FaceTracker faceTracker;
+	private static LivenessScorer livenessScorer;
 	private static String modelDir;
 	private static String option;
 	private static String inputPath;
+	// optional --name=value arguments after inputpath
+	private static Map<String, String> options = new HashMap<String, String>();
+	// score every face in frame instead of the first one
+	private static boolean mMultiFace = false;
+	private static FaceBoxBuffer mFaceBoxes = new FaceBoxBuffer();
+	private static List<Mat> mFaceImages = new ArrayList<Mat>();
+	private static List<Image> mFaceInputs = new ArrayList<Image>();
+	// ffmpeg video file through FramePipeline instead of the frame by frame loop
+	private static FramePipeline framePipeline = null;
+	// pacing of video files, null for the default of each mode
+	private static FramePacer.Mode paceMode = null;
+	// frame count bounds of the early exit decision on ffmpeg video file, 0 max for no limit
+	private static int minFrames = 5;
+	private static int maxFrames = 0;
+	// frames of ffmpeg video file to decode, null for all, "key" for key frames, K for K evenly spaced ones
+	private static String sampleOption = null;
+	// frames of a leak check window of the frame loops, 0 for no leak check
+	private static int leakCheckFrames = 0;
     private static volatile boolean mStop = false;
     
     private static Frame tempVideoFrame;
 	private static Mat mRgbFrame = new Mat();
 	private static Mat mMaskImg = new Mat();
 	private static Mat mCroppedRgb = new Mat();
-	private static Mat mBluredFrame = new Mat();
-	private static Mat mBluredGray = new Mat();
-	private static Mat mCroppedMat = new Mat();
 	private static int mPreviewSize = 0;
 	private static int mPreviewWidth = 0;
 	private static int mPreviewHeight= 0;
 //	private static int mLandscapeWidth = 1024; // 1024x576
-	private static int mLandscapeWidth = 800;  // 800x450
+	private static int mLandscapeWidth = DetectionScaler.DEFAULT_MAX_SIDE;  // 800x450
+	// decodes ffmpeg video file at most mLandscapeWidth on its long side, the liveness crops come from
+	// its full resolution frames
+	private static DetectionScaler mDetectScaler = null;
 	
 	static int mEllipseCenterX, mEllipseCenterY, mEllipseSizeX, mEllipseSizeY;
+	// square crop of the preview, made once per video instead of every frame
+	private static RoiCache mSquareCrop = null;
+	// no preview window and no overlay, results are printed when they change
+	private static boolean mHeadless = false;
+	// overlay drawn by its own thread at most this many times a second, 0 to draw it in the frame loop
+	private static int renderFps = 0;
+	private static String mLastResult = null;
 	
 
 	public static void main(String[] args) throws IOException, MalformedModelException {
@@ -63,73 +101,294 @@ public class App {
 		modelDir = args[0];
 		option = args[1];
 		inputPath = args[2];
-		if (!option.equals("image") && !option.equals("video") && !option.equals("ffmpeg")) {
+		if (!option.equals("image") && !option.equals("video") && !option.equals("ffmpeg")
+				&& !option.equals("batch") && !option.equals("serve") && !option.equals("bench")) {
 			System.out.println("Invaild option parameter!");
 			DislayUsage();
 			return;
 		}
+		int trackInterval, detectThreads, inferThreads, queueSize, batchThreads, warmup, metricsPort;
+		String jfrFile;
+		int[] benchThreads, benchBatches;
+		try {
+			parseOptions(args, 3);
+			trackInterval = getIntOption("track", 1);
+			if (trackInterval < 1) throw new IllegalArgumentException("--track must be positive");
+			mMultiFace = Boolean.parseBoolean(options.getOrDefault("multiface", "false"));
+			if (mMultiFace && Boolean.parseBoolean(options.getOrDefault("pipeline", "false"))) {
+				// the pipeline scores the first face of every frame only
+				throw new IllegalArgumentException("--multiface can not be used with --pipeline");
+			}
+			detectThreads = getIntOption("detect-threads", 1);
+			inferThreads = getIntOption("infer-threads", 1);
+			queueSize = getIntOption("queue", FramePipeline.DEFAULT_QUEUE_SIZE);
+			if (detectThreads < 1 || inferThreads < 1 || queueSize < 1) {
+				throw new IllegalArgumentException("--detect-threads, --infer-threads and --queue must be positive");
+			}
+			batchThreads = getIntOption("threads", Runtime.getRuntime().availableProcessors());
+			if (batchThreads < 1) throw new IllegalArgumentException("--threads must be positive");
+			if (option.equals("batch") || option.equals("serve")) {
+				// every batch worker or request scores whole files, it needs its own predictor and SSD workspace
+				detectThreads = Math.max(detectThreads, batchThreads);
+				inferThreads = Math.max(inferThreads, batchThreads);
+			}
+			benchThreads = getIntListOption("bench-threads", 1);
+			benchBatches = getIntListOption("bench-batch", 1);
+			if (option.equals("bench")) {
+				for (int n : benchThreads) {
+					detectThreads = Math.max(detectThreads, n);
+					inferThreads = Math.max(inferThreads, n);
+				}
+			}
+			warmup = getIntOption("warmup", 3);
+			if (warmup < 0) throw new IllegalArgumentException("--warmup must not be negative");
+			metricsPort = getIntOption("metrics-port", -1);
+			mHeadless = Boolean.parseBoolean(options.getOrDefault("headless", "false"));
+			renderFps = getIntOption("render-fps", 0);
+			if (renderFps < 0) throw new IllegalArgumentException("--render-fps must not be negative");
+			leakCheckFrames = getIntOption("leak-check", 0);
+			if (leakCheckFrames < 0) throw new IllegalArgumentException("--leak-check must not be negative");
+			jfrFile = options.get("jfr");
+			if (jfrFile != null && (jfrFile.isEmpty() || jfrFile.equals("true"))) {
+				throw new IllegalArgumentException("--jfr needs a file name");
+			}
+			String format = options.getOrDefault("format", "jsonl");
+			if (!format.equals("jsonl") && !format.equals("csv")) {
+				throw new IllegalArgumentException("--format must be jsonl or csv");
+			}
+			if (options.containsKey("pace")) {
+				paceMode = FramePacer.parseMode(options.get("pace"));
+			}
+			minFrames = getIntOption("min-frames", minFrames);
+			maxFrames = getIntOption("max-frames", maxFrames);
+			LivenessDecision.checkBounds(minFrames, maxFrames);
+			mLandscapeWidth = getIntOption("decode-width", mLandscapeWidth);
+			if (mLandscapeWidth < 0) throw new IllegalArgumentException("--decode-width must not be negative");
+			sampleOption = options.get("sample");
+			if (sampleOption != null && !sampleOption.equals("key") && getIntOption("sample", 0) < 1) {
+				throw new IllegalArgumentException("--sample must be key or positive");
+			}
+		} catch (IllegalArgumentException e) {
+			System.out.println("Invalid optional parameter! " + e.getMessage());
+			DislayUsage();
+			return;
+		}
     	System.out.println("model dir = " + modelDir);
     	logger.info("model dir = " + modelDir);
+    	if (jfrFile != null) {
+    		// started before the models are loaded, so the recording has the startup too
+    		try {
+    			FrameEvents.startRecording(Paths.get(jfrFile));
+    			System.out.println("Flight recording is written to " + jfrFile + " on exit");
+    		} catch (IOException | ParseException | IllegalStateException e) {
+    			System.out.println("Failed to start flight recording, " + e);
+    		}
+    	}
     	
-		livenessDetector = new LivenessDetector(modelDir);
-		if (!livenessDetector.init()) {
-			System.out.println("Failed to initialize liveness detection engine!");
+		// one predictor and one SSD workspace per pipeline stage thread
+		livenessDetector = new LivenessDetector(modelDir, inferThreads);
+		faceDetector = new FaceDetector(modelDir, detectThreads);
+		if (!InitEngines(warmup)) {
 			return;
+		}
+		// the warm-up passes are not part of the statistics
+		Metrics.get().reset();
+		Metrics.registerMBean();
+		if (metricsPort >= 0) {
+			Metrics.startHttpServer(metricsPort);
+			System.out.println("Metrics on http://127.0.0.1:" + metricsPort + "/metrics");
+		}
+		faceTracker = new FaceTracker(faceDetector, trackInterval);
+		mDetectScaler = new DetectionScaler(mLandscapeWidth);
+		if (Boolean.parseBoolean(options.getOrDefault("pipeline", "false"))) {
+			framePipeline = new FramePipeline(faceDetector, livenessDetector, detectThreads, inferThreads, queueSize, trackInterval);
+		}
+		livenessScorer = new LivenessScorer(faceDetector, livenessDetector);
+		livenessScorer.setTrackInterval(trackInterval);
+		livenessScorer.setFrameLimits(minFrames, maxFrames);
+		livenessScorer.setDetectWidth(mLandscapeWidth);
+		livenessScorer.setSampleOption(sampleOption);
+		
+		try {
+			if (option.equals("image"))
+			{
+				DetectLivenessFromOneImage(inputPath);
+			}else if (option.equals("batch"))
+			{
+				DetectLivenessFromBatch(inputPath, batchThreads);
+			}else if (option.equals("serve"))
+			{
+				RunServer(inputPath, batchThreads);
+			}else if (option.equals("bench"))
+			{
+				RunBenchmark(inputPath, benchThreads, benchBatches);
+			}else if (option.equals("video"))
+			{
+				if (isInteger(inputPath)) {
+					int deviceNum = Integer.parseInt(inputPath);
+					DetectLivenessFromCamera(deviceNum);
+				}
+				else {
+					File f = new File(inputPath);
+					if (!f.exists()) {
+						System.out.println("Invalid video file, check if it exists.. " + inputPath);
+						logger.debug("Invalid image file, check if it exists.. " + inputPath);
+						return;
+					}
+					if(f.isDirectory()) { 
+						System.out.println("Please specify full path of video file, not directory, " + inputPath);
+						logger.debug("Please specify full path of video file, not directory, " + inputPath);
+						return;
+					}
+					DetectLivenessFromVideo(inputPath);
+				}
+			}else if (option.equals("ffmpeg"))
+			{
+				if (isInteger(inputPath)) {
+					int deviceNum = Integer.parseInt(inputPath);
+					DetectLivenessFromCameraFfmpeg(deviceNum);
+				}else {
+					boolean liveness = framePipeline != null ?
+							DetectLivenessFromVideoPipeline(inputPath) : DetectLivenessFromVideoFfmpeg(inputPath);
+					if (liveness)
+					{
+						System.out.println("====== Result ======");
+						System.out.println("Real!");
+					}
+					else {
+						System.out.println("====== Result ======");
+						System.out.println("Fake!");
+					}
+				}
+			}
+		} catch (NativeMemory.LeakException e) {
+			// failed leak check, the preview window would keep the JVM running
+			Metrics.stopHttpServer();
+			System.exit(1);
+		} finally {
+			// the server of serve mode keeps running, the other modes are done
+			if (!option.equals("serve")) Metrics.stopHttpServer();
+		}
+	}
+
+	// Load both models at the same time, then run the warm-up passes of both,
+	// and report how long every startup phase took
+	private static boolean InitEngines(int warmup)
+	{
+		// a thread for each model: the common pool has a single thread on 2 cores and would load them one by one
+		ExecutorService initPool = Executors.newFixedThreadPool(2);
+		try {
+			return InitEngines(warmup, initPool);
+		} finally {
+			initPool.shutdown();
+		}
+	}
+
+	private static boolean InitEngines(int warmup, ExecutorService initPool)
+	{
+		long start = System.nanoTime();
+		CompletableFuture<Long> livenessLoad = CompletableFuture.supplyAsync(() -> TimeInit(livenessDetector::init), initPool);
+		CompletableFuture<Long> faceLoad = CompletableFuture.supplyAsync(() -> TimeInit(faceDetector::init), initPool);
+		long livenessLoadMs = livenessLoad.join();
+		long faceLoadMs = faceLoad.join();
+		long loadMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+		if (livenessLoadMs < 0) {
+			System.out.println("Failed to initialize liveness detection engine!");
+			return false;
 		}else {
 			System.out.println("Success to initialize liveness detection engine!");
 		}
-		
-		faceDetector = new FaceDetector(modelDir);
-		if (!faceDetector.init()) {
+		if (faceLoadMs < 0) {
 			System.out.println("Failed to initialize face detection engine!");
-			return;
+			return false;
 		}else {
 			System.out.println("Success to initialize face detection engine!");
 		}
-		
-		if (option.equals("image"))
-		{
-			DetectLivenessFromOneImage(inputPath);
-		}else if (option.equals("video"))
-		{
-			if (isInteger(inputPath)) {
-				int deviceNum = Integer.parseInt(inputPath);
-				DetectLivenessFromCamera(deviceNum);
+
+		long warmStart = System.nanoTime();
+		CompletableFuture<Long> livenessWarm = CompletableFuture.supplyAsync(() -> {
+			long t = System.nanoTime();
+			try {
+				livenessDetector.warmUp(warmup);
+			} catch (TranslateException e) {
+				throw new CompletionException(e);
 			}
-			else {
-				File f = new File(inputPath);
-				if (!f.exists()) {
-					System.out.println("Invalid video file, check if it exists.. " + inputPath);
-					logger.debug("Invalid image file, check if it exists.. " + inputPath);
-					return;
-				}
-				if(f.isDirectory()) { 
-					System.out.println("Please specify full path of video file, not directory, " + inputPath);
-					logger.debug("Please specify full path of video file, not directory, " + inputPath);
-					return;
-				}
-				DetectLivenessFromVideo(inputPath);
+			return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - t);
+		}, initPool);
+		CompletableFuture<Long> faceWarm = CompletableFuture.supplyAsync(() -> {
+			long t = System.nanoTime();
+			faceDetector.warmUp(warmup);
+			return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - t);
+		}, initPool);
+		long livenessWarmMs, faceWarmMs;
+		try {
+			livenessWarmMs = livenessWarm.join();
+			faceWarmMs = faceWarm.join();
+		} catch (CompletionException e) {
+			e.printStackTrace();
+			System.out.println("Failed to warm up detection engines!");
+			return false;
+		}
+		long warmMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - warmStart);
+
+		String timings = "Startup: models loaded in " + loadMs + " ms (liveness " + livenessLoadMs + " ms, face " + faceLoadMs + " ms), "
+				+ warmup + " warm-up passes in " + warmMs + " ms (liveness " + livenessWarmMs + " ms, face " + faceWarmMs + " ms), "
+				+ "ready " + ManagementFactory.getRuntimeMXBean().getUptime() + " ms after JVM start";
+		System.out.println(timings);
+		logger.info(timings);
+		return true;
+	}
+
+	// time of a successful init in ms, -1 if it failed
+	private static long TimeInit(BooleanSupplier init)
+	{
+		long start = System.nanoTime();
+		if (!init.getAsBoolean()) return -1;
+		return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+	}
+
+	private static void parseOptions(String[] args, int start) {
+		for (int i = start; i < args.length; i++) {
+			String arg = args[i];
+			if (!arg.startsWith("--") || arg.length() == 2) {
+				throw new IllegalArgumentException(arg);
 			}
-		}else if (option.equals("ffmpeg"))
-		{
-			if (isInteger(inputPath)) {
-				int deviceNum = Integer.parseInt(inputPath);
-				DetectLivenessFromCameraFfmpeg(deviceNum);
-			}else {
-				boolean liveness = DetectLivenessFromVideoFfmpeg(inputPath);
-				if (liveness)
-				{
-					System.out.println("====== Result ======");
-					System.out.println("Real!");
-				}
-				else {
-					System.out.println("====== Result ======");
-					System.out.println("Fake!");
-				}
+			int eq = arg.indexOf('=');
+			if (eq < 0) {
+				options.put(arg.substring(2), "true");
+			} else {
+				options.put(arg.substring(2, eq), arg.substring(eq + 1));
 			}
 		}
 	}
 
+	// comma separated positive numbers, e.g. --bench-threads=1,2,4
+	private static int[] getIntListOption(String name, int defaultValue) {
+		String value = options.get(name);
+		if (value == null) return new int[] {defaultValue};
+		String[] parts = value.split(",");
+		int[] values = new int[parts.length];
+		for (int i = 0; i < parts.length; i++) {
+			try {
+				values[i] = Integer.parseInt(parts[i].trim());
+			} catch (NumberFormatException nfe) {
+				throw new IllegalArgumentException("--" + name + " must be comma separated numbers, " + value);
+			}
+			if (values[i] < 1) throw new IllegalArgumentException("--" + name + " must be positive, " + value);
+		}
+		return values;
+	}
+
+	private static int getIntOption(String name, int defaultValue) {
+		String value = options.get(name);
+		if (value == null) return defaultValue;
+		try {
+			return Integer.parseInt(value);
+		} catch (NumberFormatException nfe) {
+			throw new IllegalArgumentException("--" + name + " must be a number, " + value);
+		}
+	}
+
 	private static boolean isInteger(String strNum) {
 	    if (strNum == null) {
 	        return false;
@@ -144,17 +403,49 @@ public class App {
 	
 	private static void DislayUsage()
 	{
-		System.out.println("Usage: LivenessDetector.jar modelDir option inputpath");
+		System.out.println("Usage: LivenessDetector.jar modelDir option inputpath [--name=value ...]");
 		System.out.println("	Parameters:		");
 		System.out.println("		modelDir: absolute path of folder that contains ML models and resource file");
 		System.out.println("			Model folder must contains 4 files");
 		System.out.println("				deploy.prototxt, res10_300x300_ssd_iter_140000.caffemodel, liveness_model.pt, face_mask.png");
-		System.out.println("		option: input option, there are 3 possible values - image, video, ffmpeg");
+		System.out.println("		option: input option, there are 6 possible values - image, video, ffmpeg, batch, serve, bench");
 		System.out.println("			image: read image");
 		System.out.println("			video: read video frame  from video file or web camera");
 		System.out.println("			ffmpeg: read video frame  from video file or web camera by using internal ffmpeg decoder");
+		System.out.println("			batch: score all images and videos in directory or listed in file, one path per line");
+		System.out.println("			serve: run scoring service on 127.0.0.1, inputpath is the port number");
+		System.out.println("				POST /score/image with image bytes, POST /score/video?path=local video file path");
+		System.out.println("			bench: end-to-end benchmark of the videos in directory or of the comma separated video files,");
+		System.out.println("				frames/s, frame latency percentiles and peak memory are written as JSON to --out");
 		System.out.println("		inputpath: absolute path of input image or video. ");
 		System.out.println("			if this parameter is number, open web camera of specified number");
+		System.out.println("	Optional parameters:		");
+		System.out.println("		--track=N: run face detection every N frames of video and track faces in between (default 1, no tracking)");
+		System.out.println("		--multiface: detect liveness of every face in image or ffmpeg video file, not only the first one");
+		System.out.println("		--pipeline: decode, detect faces and detect liveness of ffmpeg video file on separate threads");
+		System.out.println("		--detect-threads=N, --infer-threads=N: threads of face and liveness detection stage (default 1)");
+		System.out.println("		--queue=N: frames waiting between pipeline stages (default " + FramePipeline.DEFAULT_QUEUE_SIZE + ")");
+		System.out.println("		--pace=fast|source: process video file as fast as possible or at its recorded frame rate");
+		System.out.println("			(default source for video shown on screen, fast for ffmpeg video file, web camera always shows the latest frame)");
+		System.out.println("		--min-frames=N, --max-frames=N: ffmpeg video file is decided as soon as the result is certain,");
+		System.out.println("			but not before N frames and at latest after N frames (default 5 and 0, no limit)");
+		System.out.println("		--sample=K|key: score only K evenly spaced frames (seeking skips the key frame intervals between them) or only key frames of ffmpeg video file");
+		System.out.println("		--decode-width=N: decode ffmpeg video file at most N pixels on its long side for face detection, the liveness");
+		System.out.println("			model gets the face from the full resolution frame of the scored frames (default 800, 0 for full size)");
+		System.out.println("		--warmup=N: run every loaded model N times on a synthetic image before use (default 3, 0 for none)");
+		System.out.println("		--threads=N: batch worker threads or concurrently scored requests of server (default number of cores)");
+		System.out.println("		--format=jsonl|csv, --out=path: batch result format and file (default jsonl, liveness_results.jsonl)");
+		System.out.println("		--bench-threads=N[,N...], --bench-batch=N[,N...]: thread counts and batch sizes run by bench (default 1)");
+		System.out.println("			bench report goes to --out (default liveness_bench.json)");
+		System.out.println("		--metrics-port=N: serve stage latencies and frame counters as Prometheus text on http://127.0.0.1:N/metrics");
+		System.out.println("			(server mode has them on /metrics, JMX always has them as LivenessDetect:type=Metrics)");
+		System.out.println("		--headless: video and ffmpeg modes open no window and draw no overlay, results are printed when they change");
+		System.out.println("		--render-fps=N: draw the preview overlay on its own thread at most N times a second, so detection and");
+		System.out.println("			inference never wait for it (default 0, drawn in the frame loop)");
+		System.out.println("		--leak-check=N: fail with exit code 1 when the native memory of a video or ffmpeg frame loop grows over");
+		System.out.println("			N frames after N warm-up frames (native and RSS gauges are on /metrics and JMX anyway)");
+		System.out.println("		--jfr=file.jfr: record the JFR profile events and the frame grab, face detection and inference events");
+		System.out.println("			of this program (LivenessDetect.*, disabled otherwise) into file on exit");
 		System.out.println("Example: ");
 		System.out.println("	java jar LivenessDetect-all.jar /home/maxim/model image /home/maxim/model/2dmask_2.png");
 		System.out.println("	java jar LivenessDetect-all.jar /home/maxim/model video /home/maxim/model/Mask_Half_44.mp4");
@@ -164,6 +455,8 @@ public class App {
 		System.out.println("		this open mask_attack.mp4 video file and decode frame with own ffmpeg decoder");
 		System.out.println("	java jar LivenessDetect-all.jar /home/maxim/model ffmpeg 0");
 		System.out.println("		this open web camera and capture frame with own ffmpeg decoder");
+		System.out.println("	java jar LivenessDetect-all.jar /home/maxim/model bench /home/maxim/model --bench-threads=1,4 --bench-batch=1,8");
+		System.out.println("		this runs the bundled videos of the model folder and writes liveness_bench.json");
 		return;
 	}
 	
@@ -182,18 +475,188 @@ public class App {
 		}
 		System.out.println("Reading image... " + imagePath);
 		Mat frame = imread(imagePath);
+		if (mMultiFace) {
+			List<Boolean> results = DetectLivenessFromFaces(frame, 0, 0.89f);
+			int live = 0;
+			for (boolean result : results) {
+				if (result) live++;
+			}
+			System.out.println(live + " of " + results.size() + " faces are live");
+			return;
+		}
 		boolean result = DetectLivenessFromFrame(frame);
 		System.out.println(result? "Live!" : "Fake!");
 	}
 
+	private static void DetectLivenessFromBatch(String path, int threads) throws IOException
+	{
+		File f = new File(path);
+		if (!f.exists()) {
+			System.out.println("Invalid input directory or file list, check if it exists.. " + path);
+			logger.debug("Invalid input directory or file list, check if it exists.. " + path);
+			return;
+		}
+		List<String> inputs = BatchScorer.listInputs(path);
+		System.out.println(inputs.size() + " files to score with " + threads + " threads");
+		boolean csv = options.getOrDefault("format", "jsonl").equals("csv");
+		String outPath = options.getOrDefault("out", csv ? "liveness_results.csv" : "liveness_results.jsonl");
+		try (Writer out = Files.newBufferedWriter(Paths.get(outPath), StandardCharsets.UTF_8)) {
+			new BatchScorer(livenessScorer, threads).run(inputs, out, csv);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			System.out.println("Batch interrupted");
+		}
+		System.out.println("Results written to " + outPath);
+	}
+
+	// end-to-end benchmark over the videos of a directory (e.g. the model directory with its
+	// bundled videos) or the comma separated video files
+	private static void RunBenchmark(String path, int[] threads, int[] batches) throws IOException
+	{
+		List<String> videos = new ArrayList<String>();
+		if (new File(path).isDirectory()) {
+			for (String input : BatchScorer.listInputs(path)) {
+				if (LivenessScorer.isVideo(input)) videos.add(input);
+			}
+		} else {
+			for (String video : path.split(",")) {
+				if (!new File(video).isFile()) {
+					System.out.println("Invalid video file, check if it exists.. " + video);
+					logger.debug("Invalid video file, check if it exists.. " + video);
+					return;
+				}
+				videos.add(video);
+			}
+		}
+		if (videos.isEmpty()) {
+			System.out.println("No video to benchmark in " + path);
+			return;
+		}
+		String outPath = options.getOrDefault("out", "liveness_bench.json");
+		EndToEndBenchmark bench = new EndToEndBenchmark(faceDetector, livenessDetector);
+		bench.setDetectWidth(mLandscapeWidth);
+		List<EndToEndBenchmark.Run> runs;
+		try {
+			runs = bench.run(videos, threads, batches);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			System.out.println("Benchmark interrupted");
+			return;
+		}
+		// opened only after every run succeeded, a failed benchmark leaves the previous report as it was
+		try (Writer out = Files.newBufferedWriter(Paths.get(outPath), StandardCharsets.UTF_8)) {
+			EndToEndBenchmark.writeReport(runs, out);
+		}
+		System.out.println("Benchmark report written to " + outPath);
+	}
+
+	private static void RunServer(String port, int threads) throws IOException
+	{
+		if (!isInteger(port)) {
+			System.out.println("Please specify port number of server, " + port);
+			return;
+		}
+		LivenessServer server = new LivenessServer(livenessScorer, Integer.parseInt(port), threads);
+		server.start();
+		System.out.println("Liveness server listening on http://127.0.0.1:" + server.getPort());
+		// the server threads keep running after main returns
+		Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+			server.close();
+			faceDetector.close();
+			livenessDetector.close();
+		}));
+	}
+
+	// detect liveness of every face in frame with one batch inference.
+	// timestamp is the one of a frame of ffmpeg video file decoded by mDetectScaler, 0 for an image
+	private static List<Boolean> DetectLivenessFromFaces(Mat frame, long timestamp, float threshold) throws IOException
+	{
+		faceDetector.getFaceBoxes(frame, threshold, mFaceBoxes);
+		int count = 0;
+		mFaceImages.clear();
+		if (mFaceBoxes.size() > 0) {
+			// faces are searched on the decoded frame and cut from the full resolution frame
+			mDetectScaler.toFullResolution(mFaceBoxes);
+			count = faceDetector.extract_facebox_areas(mDetectScaler.fullResolutionFrame(frame, timestamp), mFaceBoxes, mFaceImages);
+		}
+		mFaceInputs.clear();
+		for (Mat face : mFaceImages) {
+			mFaceInputs.add(ImageConverter.toImage(face));
+		}
+		List<Boolean> results = livenessDetector.detectLivenessBatch(mFaceInputs);
+		for (int i = 0; i < count; i++) {
+			faceBox box = mFaceBoxes.get(i);
+			System.out.println("face " + i + " [" + box.x_left + ", " + box.y_top + ", "
+					+ box.x_right + ", " + box.y_bottom + "] confidence = " + mFaceBoxes.confidence(i)
+					+ (results.get(i) ? " Live!" : " Fake!"));
+		}
+		return results;
+	}
+
 	private static boolean DetectLivenessFromFrame(Mat frame) throws IOException
 	{
-		BufferedImage bi = Java2DFrameUtils.toBufferedImage(frame);
-		Image img = BufferedImageFactory.getInstance().fromImage(bi);
-		boolean liveness  = livenessDetector.detectLiveness(img);
+		// wrap the frame as DJL image directly, no BufferedImage copy in between
+		Image img = ImageConverter.toImage(frame);
+		float score;
+		try {
+			score = livenessDetector.getFakeScore(img);
+		} catch (TranslateException e) {
+			e.printStackTrace();
+			return false;
+		}
+		PrintFakeScore(score);
+		boolean liveness  = score < LivenessDetector.FAKE_THRESHOLD;
 		return liveness;
 	}
 
+	// Result of the square preview crop with facebox: null without face, "Fit Face!" when the face
+	// is not inside the ellipse, else "Real" or "Fake"
+	private static String DetectLivenessFromPreview(Mat crop, faceBox facebox) throws IOException
+	{
+		if (facebox == null) return null;
+		if (!checkfit(facebox)) return PreviewRenderer.FIT_FACE;
+		return DetectLivenessFromFrame(crop) ? "Real" : "Fake";
+	}
+
+	// Preview window of mPreviewSize with the face fit overlay, null in headless mode.
+	// mEllipse* must be set
+	private static PreviewRenderer OpenPreview(String maskPath)
+	{
+		mLastResult = null;
+		if (mHeadless) return null;
+		CanvasFrame mainframe = new CanvasFrame("Face Detection", CanvasFrame.getDefaultGamma() / 2.2);
+		mainframe.setDefaultCloseOperation(javax.swing.JFrame.EXIT_ON_CLOSE);
+		mainframe.setLocationRelativeTo(null);
+		mainframe.setVisible(true);
+		mainframe.setCanvasSize(mPreviewSize, mPreviewSize);
+		Mat face_mask = imread(maskPath);
+		resize(face_mask, face_mask, new Size(mPreviewSize, mPreviewSize));
+		mMaskImg = new Mat(new Size(mPreviewSize, mPreviewSize), CV_8UC1);
+		cvtColor(face_mask, mMaskImg, COLOR_BGR2GRAY);
+		return new PreviewRenderer(mainframe, mMaskImg, mEllipseCenterX, mEllipseCenterY, mEllipseSizeX, mEllipseSizeY, renderFps);
+	}
+
+	// headless loops run until stop()
+	private static boolean IsPreviewOpen(PreviewRenderer preview)
+	{
+		return preview != null ? preview.isVisible() : !mStop;
+	}
+
+	// hand the crop to the preview, headless print the result when it changes
+	private static void ShowPreview(PreviewRenderer preview, Mat crop, faceBox facebox, String result)
+	{
+		if (preview != null) {
+			preview.show(crop, facebox, result);
+			return;
+		}
+		if (result != null ? !result.equals(mLastResult) : mLastResult != null) {
+			mLastResult = result;
+			String line = result != null ? result : "No face";
+			System.out.println(line);
+			logger.info(line);
+		}
+	}
+
 	// This function does not work well on Ubuntu18.04
 	// due to capture.open(video_path) fails
 	// Use DetectLivenessFromCameraFfmpeg() function on Ubuntu
@@ -215,10 +678,6 @@ public class App {
 			return;
 		}
 
-		CanvasFrame mainframe = new CanvasFrame("Face Detection", CanvasFrame.getDefaultGamma() / 2.2);
-		mainframe.setDefaultCloseOperation(javax.swing.JFrame.EXIT_ON_CLOSE);
-		mainframe.setLocationRelativeTo(null);
-		mainframe.setVisible(true);
 		Mat sample_frame = new Mat();
 		capture.read(sample_frame);
 		int previewWidth = sample_frame.cols(); 
@@ -229,81 +688,38 @@ public class App {
 		}else{
 			mPreviewSize = previewHeight;
 		}
-		mainframe.setCanvasSize(mPreviewSize, mPreviewSize);
 
-		Mat face_mask = imread(maskPath);
-		resize(face_mask, face_mask, new Size(mPreviewSize, mPreviewSize));
-		mMaskImg = new Mat(new Size(mPreviewSize, mPreviewSize), CV_8UC1);
-		cvtColor(face_mask, mMaskImg, COLOR_BGR2GRAY);
-		mBluredFrame = new Mat(new Size(mPreviewSize, mPreviewSize), CV_8UC3);
-		mBluredGray = new Mat(new Size(mPreviewSize, mPreviewSize), CV_8UC1);
-		mCroppedMat = new Mat(new Size(mPreviewSize, mPreviewSize), CV_8UC3);
 		mEllipseCenterX = (int) (mPreviewSize * 0.5);
 		mEllipseCenterY = (int) (mEllipseCenterX * 0.9);
 		mEllipseSizeX = (int) (mPreviewSize * 0.225);
 		mEllipseSizeY = (int) (mEllipseSizeX * 1.285);
+		InitSquareCrop(previewWidth, previewHeight);
+		PreviewRenderer preview = OpenPreview(maskPath);
 		
-		while (capture.read(mRgbFrame) && mainframe.isVisible()) {
-			// crop the frame as square one
-			if (previewHeight > previewWidth){
-				int delta = previewHeight - previewWidth;
-				Rect rt0 = new Rect(0, delta/2, previewWidth, previewWidth);
-				mCroppedRgb = new Mat(mRgbFrame, rt0);
-			}else{
-				int delta = previewWidth - previewHeight;
-				Rect rt0 = new Rect(delta/2, 0, previewHeight, previewHeight);
-				mCroppedRgb = new Mat(mRgbFrame, rt0);
-			}
-			// copy mCroppedRgb to mCroppedMat for liveness detection
-			mCroppedRgb.copyTo(mCroppedMat);
-			cvtColor(mCroppedRgb, mBluredGray, COLOR_BGR2GRAY);
-			cvtColor(mBluredGray, mBluredFrame, COLOR_GRAY2BGR );
-//			Imgproc.GaussianBlur(mRgbFrame, mBluredFrame, new Size(15, 15), 11.0);
-			mBluredFrame.copyTo(mCroppedRgb, mMaskImg);
-            putText(mCroppedRgb, "Please fit face in ellipse area... ",
-            		new Point(10, 30), CV_FONT_HERSHEY_SIMPLEX, 0.7,
-    				new Scalar(0, 255, 0, 0), 1, LINE_AA, false);
-			ellipse (mCroppedRgb, new Point(mEllipseCenterX, mEllipseCenterY), 
-					new Size(mEllipseSizeX, mEllipseSizeY), 0, 0, 360, 
-					new Scalar(255, 0, 255, 0) , 2, LINE_8, 0);
-			//faceDetector.getFaceBoxes(mCroppedRgb, 0.9f, true);
-			faceBox facebox = faceDetector.extract_facebox(mCroppedRgb, 0.8f, true);
-			if (facebox ==null) continue;
-			boolean isFitInEllipse = checkfit(facebox);
-			String resultString = "";
-			if (isFitInEllipse) {
-				ellipse (mCroppedRgb, new Point(mEllipseCenterX, mEllipseCenterY), 
-						new Size(mEllipseSizeX, mEllipseSizeY), 0, 0, 360, 
-						new Scalar(255, 0, 0, 0) , 2, LINE_8, 0);
-				//int width = facebox.x_right - facebox.x_left;
-				//int height = facebox.y_bottom - facebox.y_top;
-				//Rect rectCrop = new Rect(facebox.x_left, facebox.y_top, width, height);
-				//Mat face_img = new Mat(mCroppedMat, rectCrop);
-				boolean liveness = DetectLivenessFromFrame(mCroppedMat);
-				if (liveness) {
-					resultString = "Real";
-				}else {
-					resultString = "Fake";
+		faceTracker.reset();
+		// frames that came in while the previous one was processed are dropped
+		LatestFrameGrabber latestGrabber = LatestFrameGrabber.of(capture);
+		NativeMemory.Stream nativeStream = NativeMemory.open("camera " + deviceNum, leakCheckFrames);
+		try {
+			while (IsPreviewOpen(preview) && (mRgbFrame = readLatestFrame(latestGrabber)) != null) {
+				// temporaries of the frame are freed at the end of it, not by the GC
+				try (PointerScope frameScope = new PointerScope()) {
+					// crop the frame as square one
+					mCroppedRgb = mSquareCrop.get(mRgbFrame);
+					// the overlay is drawn after detection and inference, they see the clean frame
+					faceBox facebox = faceTracker.extract_facebox(mCroppedRgb, 0.8f, false);
+					ShowPreview(preview, mCroppedRgb, facebox, DetectLivenessFromPreview(mCroppedRgb, facebox));
 				}
-				ellipse (mCroppedRgb, new Point(mEllipseCenterX, mEllipseCenterY), 
-						new Size(mEllipseSizeX, mEllipseSizeY), 0, 0, 360, 
-						new Scalar(0, 255, 0, 0) , 2, LINE_8, 0);
-			}else {
-				resultString = "Fit Face!";
-			}
-			
-			putText(mCroppedRgb, resultString,
-	            		new Point(mPreviewSize / 2 - 50, mPreviewSize - 30), CV_FONT_HERSHEY_SIMPLEX, 1,
-	    				new Scalar(0, 255, 0, 0), 1, LINE_AA, false);
-			mainframe.showImage(converter.convert(mCroppedRgb));
-			//mainframe.validate();
-			try {
-				Thread.sleep(30);
-			} catch (InterruptedException ex) {
-				System.out.println(ex.getMessage());
-			}
-		}//while (capture.read(colorimg) && mainframe.isVisible()) 
-		capture.close();
+				// leak check after the frame, so it can't mask an exception of the frame
+				nativeStream.frame();
+			}//while (capture.read(colorimg) && mainframe.isVisible()) 
+		} finally {
+			nativeStream.close();
+		}
+		if (preview != null) preview.close();
+		mRgbFrame = new Mat();
+		// the grab thread may still be inside capture.read()
+		if (latestGrabber.close()) capture.close();
 	}
 	
 	// This function does not work well on Ubuntu18.04
@@ -327,10 +743,6 @@ public class App {
 			return;
 		}
 
-		CanvasFrame mainframe = new CanvasFrame("Face Detection", CanvasFrame.getDefaultGamma() / 2.2);
-		mainframe.setDefaultCloseOperation(javax.swing.JFrame.EXIT_ON_CLOSE);
-		mainframe.setLocationRelativeTo(null);
-		mainframe.setVisible(true);
 		Mat sample_frame = new Mat();
 		capture.read(sample_frame);
 		int previewWidth = sample_frame.cols(); 
@@ -341,79 +753,35 @@ public class App {
 		}else{
 			mPreviewSize = previewHeight;
 		}
-		mainframe.setCanvasSize(mPreviewSize, mPreviewSize);
 
-		Mat face_mask = imread(maskPath);
-		resize(face_mask, face_mask, new Size(mPreviewSize, mPreviewSize));
-		mMaskImg = new Mat(new Size(mPreviewSize, mPreviewSize), CV_8UC1);
-		cvtColor(face_mask, mMaskImg, COLOR_BGR2GRAY);
-		mBluredFrame = new Mat(new Size(mPreviewSize, mPreviewSize), CV_8UC3);
-		mBluredGray = new Mat(new Size(mPreviewSize, mPreviewSize), CV_8UC1);
-		mCroppedMat = new Mat(new Size(mPreviewSize, mPreviewSize), CV_8UC3);
 		mEllipseCenterX = (int) (mPreviewSize * 0.5);
 		mEllipseCenterY = (int) (mEllipseCenterX * 0.9);
 		mEllipseSizeX = (int) (mPreviewSize * 0.225);
 		mEllipseSizeY = (int) (mEllipseSizeX * 1.285);
+		InitSquareCrop(previewWidth, previewHeight);
+		PreviewRenderer preview = OpenPreview(maskPath);
 		
-		while (capture.read(mRgbFrame) && mainframe.isVisible()) {
-			// crop the frame as square one
-			if (previewHeight > previewWidth){
-				int delta = previewHeight - previewWidth;
-				Rect rt0 = new Rect(0, delta/2, previewWidth, previewWidth);
-				mCroppedRgb = new Mat(mRgbFrame, rt0);
-			}else{
-				int delta = previewWidth - previewHeight;
-				Rect rt0 = new Rect(delta/2, 0, previewHeight, previewHeight);
-				mCroppedRgb = new Mat(mRgbFrame, rt0);
-			}
-			// copy mCroppedRgb to mCroppedMat for liveness detection
-			mCroppedRgb.copyTo(mCroppedMat);
-			cvtColor(mCroppedRgb, mBluredGray, COLOR_BGR2GRAY);
-			cvtColor(mBluredGray, mBluredFrame, COLOR_GRAY2BGR );
-//			Imgproc.GaussianBlur(mRgbFrame, mBluredFrame, new Size(15, 15), 11.0);
-			mBluredFrame.copyTo(mCroppedRgb, mMaskImg);
-            putText(mCroppedRgb, "Please fit face in ellipse area... ",
-            		new Point(10, 30), CV_FONT_HERSHEY_SIMPLEX, 0.7,
-    				new Scalar(0, 255, 0, 0), 1, LINE_AA, false);
-			ellipse (mCroppedRgb, new Point(mEllipseCenterX, mEllipseCenterY), 
-					new Size(mEllipseSizeX, mEllipseSizeY), 0, 0, 360, 
-					new Scalar(255, 0, 255, 0) , 2, LINE_8, 0);
-			//faceDetector.getFaceBoxes(mCroppedRgb, 0.9f, true);
-			faceBox facebox = faceDetector.extract_facebox(mCroppedRgb, 0.8f, true);
-			if (facebox ==null) continue;
-			boolean isFitInEllipse = checkfit(facebox);
-			String resultString = "";
-			if (isFitInEllipse) {
-				ellipse (mCroppedRgb, new Point(mEllipseCenterX, mEllipseCenterY), 
-						new Size(mEllipseSizeX, mEllipseSizeY), 0, 0, 360, 
-						new Scalar(255, 0, 0, 0) , 2, LINE_8, 0);
-				//int width = facebox.x_right - facebox.x_left;
-				//int height = facebox.y_bottom - facebox.y_top;
-				//Rect rectCrop =new Rect(facebox.x_left, facebox.y_top, width, height);
-				//Mat face_img = new Mat(mCroppedMat, rectCrop);
-				boolean liveness = DetectLivenessFromFrame(mCroppedMat);
-				if (liveness) {
-					resultString = "Real";
-				}else {
-					resultString = "Fake";
+		faceTracker.reset();
+		FramePacer pacer = new FramePacer(paceMode != null ? paceMode : FramePacer.Mode.SOURCE_RATE, capture.get(CAP_PROP_FPS));
+		NativeMemory.Stream nativeStream = NativeMemory.open(video_path, leakCheckFrames);
+		try {
+			while (readFrame(capture, mRgbFrame) && IsPreviewOpen(preview)) {
+				// temporaries of the frame are freed at the end of it, not by the GC
+				try (PointerScope frameScope = new PointerScope()) {
+					if (!waitForFrame(pacer, (long) (capture.get(CAP_PROP_POS_MSEC) * 1000))) break;
+					// crop the frame as square one
+					mCroppedRgb = mSquareCrop.get(mRgbFrame);
+					// the overlay is drawn after detection and inference, they see the clean frame
+					faceBox facebox = faceTracker.extract_facebox(mCroppedRgb, 0.8f, false);
+					ShowPreview(preview, mCroppedRgb, facebox, DetectLivenessFromPreview(mCroppedRgb, facebox));
 				}
-				ellipse (mCroppedRgb, new Point(mEllipseCenterX, mEllipseCenterY), 
-						new Size(mEllipseSizeX, mEllipseSizeY), 0, 0, 360, 
-						new Scalar(0, 255, 0, 0) , 2, LINE_8, 0);
-			}else {
-				resultString = "Fit Face!";
-			}
-			
-			putText(mCroppedRgb, resultString,
-	            		new Point(mPreviewSize / 2 - 50, mPreviewSize - 30), CV_FONT_HERSHEY_SIMPLEX, 1,
-	    				new Scalar(0, 255, 0, 0), 1, LINE_AA, false);
-			mainframe.showImage(converter.convert(mCroppedRgb));
-			try {
-				Thread.sleep(30);
-			} catch (InterruptedException ex) {
-				System.out.println(ex.getMessage());
-			}
-		}//while (capture.read(colorimg) && mainframe.isVisible()) 
+				// leak check after the frame, so it can't mask an exception of the frame
+				nativeStream.frame();
+			}//while (capture.read(colorimg) && mainframe.isVisible()) 
+		} finally {
+			nativeStream.close();
+		}
+		if (preview != null) preview.close();
 		capture.close();
 	}
 	
@@ -427,7 +795,7 @@ public class App {
 			grabber.start();
 			if (grabber.grab() != null) {
 				tempVideoFrame = grabber.grab();
-				sample_frame = toJavaCvMat.convert(tempVideoFrame);
+				sample_frame = ImageConverter.toMat(tempVideoFrame);
 				previewWidth = sample_frame.cols(); 
 				previewHeight = sample_frame.rows();
 			}
@@ -439,17 +807,12 @@ public class App {
 			return;
 		} 
 
-		CanvasFrame mainframe = new CanvasFrame("Face Detection", CanvasFrame.getDefaultGamma() / 2.2);
-		mainframe.setDefaultCloseOperation(javax.swing.JFrame.EXIT_ON_CLOSE);
-		mainframe.setLocationRelativeTo(null);
-		mainframe.setVisible(true);
 
 		if (previewHeight > previewWidth){
 			mPreviewSize = previewWidth;
 		}else{
 			mPreviewSize = previewHeight;
 		}
-		mainframe.setCanvasSize(mPreviewSize, mPreviewSize);
 		String maskPath = modelDir + "/" + "face_mask.png";
 		File ff = new File(maskPath);
 		if (!ff.exists()) {
@@ -457,83 +820,41 @@ public class App {
 			logger.debug("Invalid mask image path, " + maskPath);
 			return;
 		}
-		Mat face_mask = imread(maskPath);
-		resize(face_mask, face_mask, new Size(mPreviewSize, mPreviewSize));
-		mMaskImg = new Mat(new Size(mPreviewSize, mPreviewSize), CV_8UC1);
-		cvtColor(face_mask, mMaskImg, COLOR_BGR2GRAY);
-		mBluredFrame = new Mat(new Size(mPreviewSize, mPreviewSize), CV_8UC3);
-		mBluredGray = new Mat(new Size(mPreviewSize, mPreviewSize), CV_8UC1);
-		mCroppedMat = new Mat(new Size(mPreviewSize, mPreviewSize), CV_8UC3);
 		mEllipseCenterX = (int) (mPreviewSize * 0.5);
 		mEllipseCenterY = (int) (mEllipseCenterX * 0.9);
 		mEllipseSizeX = (int) (mPreviewSize * 0.225);
 		mEllipseSizeY = (int) (mEllipseSizeX * 1.285);
+		InitSquareCrop(previewWidth, previewHeight);
+		PreviewRenderer preview = OpenPreview(maskPath);
 		
 		grabber.start();
-		while (grabber.grab() != null && mainframe.isVisible()) {
-			tempVideoFrame = grabber.grab();
-			mRgbFrame = toJavaCvMat.convert(tempVideoFrame);
-			if (mRgbFrame==null) continue;
-			// crop the frame as square one
-			if (previewHeight > previewWidth){
-				int delta = previewHeight - previewWidth;
-				Rect rt0 = new Rect(0, delta/2, previewWidth, previewWidth);
-				mCroppedRgb = new Mat(mRgbFrame, rt0);
-			}else{
-				int delta = previewWidth - previewHeight;
-				Rect rt0 = new Rect(delta/2, 0, previewHeight, previewHeight);
-				mCroppedRgb = new Mat(mRgbFrame, rt0);
-			}
-			// copy mCroppedRgb to mCroppedMat for liveness detection
-			mCroppedRgb.copyTo(mCroppedMat);
-			cvtColor(mCroppedRgb, mBluredGray, COLOR_BGR2GRAY);
-			cvtColor(mBluredGray, mBluredFrame, COLOR_GRAY2BGR );
-//			Imgproc.GaussianBlur(mRgbFrame, mBluredFrame, new Size(15, 15), 11.0);
-			mBluredFrame.copyTo(mCroppedRgb, mMaskImg);
-            putText(mCroppedRgb, "Please fit face in ellipse area... ",
-            		new Point(10, 30), CV_FONT_HERSHEY_SIMPLEX, 0.7,
-    				new Scalar(0, 255, 0, 0), 1, LINE_AA, false);
-			ellipse (mCroppedRgb, new Point(mEllipseCenterX, mEllipseCenterY), 
-					new Size(mEllipseSizeX, mEllipseSizeY), 0, 0, 360, 
-					new Scalar(255, 0, 255, 0) , 2, LINE_8, 0);
-			//faceDetector.getFaceBoxes(mCroppedRgb, 0.9f, true);
-			faceBox facebox = faceDetector.extract_facebox(mCroppedRgb, 0.8f, true);
-			if (facebox ==null) continue;
-			boolean isFitInEllipse = checkfit(facebox);
-			String resultString = "";
-			if (isFitInEllipse) {
-				ellipse (mCroppedRgb, new Point(mEllipseCenterX, mEllipseCenterY), 
-						new Size(mEllipseSizeX, mEllipseSizeY), 0, 0, 360, 
-						new Scalar(255, 0, 0, 0) , 2, LINE_8, 0);
-				//int width = facebox.x_right - facebox.x_left;
-				//int height = facebox.y_bottom - facebox.y_top;
-				//Rect rectCrop = new Rect(facebox.x_left, facebox.y_top, width, height);
-				//Mat face_img = new Mat(mCroppedMat, rectCrop);
-				boolean liveness = DetectLivenessFromFrame(mCroppedMat);
-				if (liveness) {
-					resultString = "Real";
-				}else {
-					resultString = "Fake";
+		faceTracker.reset();
+		// frames that came in while the previous one was processed are dropped
+		LatestFrameGrabber latestGrabber = LatestFrameGrabber.of(grabber);
+		NativeMemory.Stream nativeStream = NativeMemory.open("camera " + deviceNum, leakCheckFrames);
+		try {
+			while (IsPreviewOpen(preview) && (mRgbFrame = readLatestFrame(latestGrabber)) != null) {
+				// temporaries of the frame are freed at the end of it, not by the GC
+				try (PointerScope frameScope = new PointerScope()) {
+					// crop the frame as square one
+					mCroppedRgb = mSquareCrop.get(mRgbFrame);
+					// the overlay is drawn after detection and inference, they see the clean frame
+					faceBox facebox = faceTracker.extract_facebox(mCroppedRgb, 0.8f, false);
+					ShowPreview(preview, mCroppedRgb, facebox, DetectLivenessFromPreview(mCroppedRgb, facebox));
 				}
-				ellipse (mCroppedRgb, new Point(mEllipseCenterX, mEllipseCenterY), 
-						new Size(mEllipseSizeX, mEllipseSizeY), 0, 0, 360, 
-						new Scalar(0, 255, 0, 0) , 2, LINE_8, 0);
-			}else {
-				resultString = "Fit Face!";
-			}
-			
-			putText(mCroppedRgb, resultString,
-	            		new Point(mPreviewSize / 2 - 50, mPreviewSize - 30), CV_FONT_HERSHEY_SIMPLEX, 1,
-	    				new Scalar(0, 255, 0, 0), 1, LINE_AA, false);
-			mainframe.showImage(converter.convert(mCroppedRgb));
-			try {
-				Thread.sleep(30);
-			} catch (InterruptedException ex) {
-				System.out.println(ex.getMessage());
-			}
-		}//while (grabber.grab() != null && mainframe.isVisible()) 
-		grabber.stop();
-		grabber.release();
+				// leak check after the frame, so it can't mask an exception of the frame
+				nativeStream.frame();
+			}//while (grabber.grab() != null && mainframe.isVisible()) 
+		} finally {
+			nativeStream.close();
+		}
+		if (preview != null) preview.close();
+		mRgbFrame = new Mat();
+		// the grab thread may still be inside grabber.grab()
+		if (latestGrabber.close()) {
+			grabber.stop();
+			grabber.release();
+		}
 	}
 	
 	private static void DetectLivenessFromVideoFfmpeg0(String videoPath) throws IOException
@@ -565,7 +886,7 @@ public class App {
 			VIDEO_GRABBER.start();
 			tempVideoFrame = VIDEO_GRABBER.grabImage();
 			if (tempVideoFrame != null) {
-				sample_frame = toJavaCvMat.convert(tempVideoFrame);
+				sample_frame = ImageConverter.toMat(tempVideoFrame);
 				previewWidth = sample_frame.cols(); 
 				previewHeight = sample_frame.rows();
 			}
@@ -580,108 +901,61 @@ public class App {
 			return;
 		} 
 
-		CanvasFrame mainframe = new CanvasFrame("Face Detection", CanvasFrame.getDefaultGamma() / 2.2);
-		mainframe.setDefaultCloseOperation(javax.swing.JFrame.EXIT_ON_CLOSE);
-		mainframe.setLocationRelativeTo(null);
-		mainframe.setVisible(true);
 		
 		if (previewHeight > previewWidth){
 			mPreviewSize = previewWidth;
 		}else{
 			mPreviewSize = previewHeight;
 		}
-		mainframe.setCanvasSize(mPreviewSize, mPreviewSize);
 
-		Mat face_mask = imread(maskPath);
-		resize(face_mask, face_mask, new Size(mPreviewSize, mPreviewSize));
-		mMaskImg = new Mat(new Size(mPreviewSize, mPreviewSize), CV_8UC1);
-		cvtColor(face_mask, mMaskImg, COLOR_BGR2GRAY);
-		mBluredFrame = new Mat(new Size(mPreviewSize, mPreviewSize), CV_8UC3);
-		mBluredGray = new Mat(new Size(mPreviewSize, mPreviewSize), CV_8UC1);
-		mCroppedMat = new Mat(new Size(mPreviewSize, mPreviewSize), CV_8UC3);
 		mEllipseCenterX = (int) (mPreviewSize * 0.5);
 		mEllipseCenterY = (int) (mEllipseCenterX * 0.9);
 		mEllipseSizeX = (int) (mPreviewSize * 0.225);
 		mEllipseSizeY = (int) (mEllipseSizeX * 1.285);
+		InitSquareCrop(previewWidth, previewHeight);
+		PreviewRenderer preview = OpenPreview(maskPath);
 		
 		boolean bLiveness = true;
 		VIDEO_GRABBER.start();
-		while (!mStop && mainframe.isVisible()) {
-			tempVideoFrame = VIDEO_GRABBER.grabImage();
-		    if (tempVideoFrame == null) {
-		      stop();
-		      break;
-		    }
-		    mRgbFrame = new OpenCVFrameConverter.ToMat().convert(tempVideoFrame);
-		    if (mRgbFrame == null) {
-		      continue;
-		    }
-			// crop the frame as square one
-			if (previewHeight > previewWidth){
-				int delta = previewHeight - previewWidth;
-				Rect rt0 = new Rect(0, delta/2, previewWidth, previewWidth);
-				mCroppedRgb = new Mat(mRgbFrame, rt0);
-			}else{
-				int delta = previewWidth - previewHeight;
-				Rect rt0 = new Rect(delta/2, 0, previewHeight, previewHeight);
-				mCroppedRgb = new Mat(mRgbFrame, rt0);
-			}
-			// copy mCroppedRgb to mCroppedMat for liveness detection
-			mCroppedRgb.copyTo(mCroppedMat);
-			cvtColor(mCroppedRgb, mBluredGray, COLOR_BGR2GRAY);
-			cvtColor(mBluredGray, mBluredFrame, COLOR_GRAY2BGR );
-//			Imgproc.GaussianBlur(mRgbFrame, mBluredFrame, new Size(15, 15), 11.0);
-			mBluredFrame.copyTo(mCroppedRgb, mMaskImg);
-            putText(mCroppedRgb, "Please fit face in ellipse area... ",
-            		new Point(10, 30), CV_FONT_HERSHEY_SIMPLEX, 0.7,
-    				new Scalar(0, 255, 0, 0), 1, LINE_AA, false);
-			ellipse (mCroppedRgb, new Point(mEllipseCenterX, mEllipseCenterY), 
-					new Size(mEllipseSizeX, mEllipseSizeY), 0, 0, 360, 
-					new Scalar(255, 0, 255, 0) , 2, LINE_8, 0);
-			//faceDetector.getFaceBoxes(mCroppedRgb, 0.9f, true);
-			faceBox facebox = faceDetector.extract_facebox(mCroppedRgb, 0.8f, true);
-			if (facebox ==null) continue;
-			boolean isFitInEllipse = checkfit(facebox);
-			String resultString = "";
-			if (isFitInEllipse) {
-				ellipse (mCroppedRgb, new Point(mEllipseCenterX, mEllipseCenterY), 
-						new Size(mEllipseSizeX, mEllipseSizeY), 0, 0, 360, 
-						new Scalar(255, 0, 0, 0) , 2, LINE_8, 0);
-				//int width = facebox.x_right - facebox.x_left;
-				//int height = facebox.y_bottom - facebox.y_top;
-				//Rect rectCrop = new Rect(facebox.x_left, facebox.y_top, width, height);
-				//Mat face_img = new Mat(mCroppedMat, rectCrop);
-				boolean liveness = DetectLivenessFromFrame(mCroppedMat);
-				if (liveness) {
-					resultString = "Real";
-				}else {
-					resultString = "Fake";
+		faceTracker.reset();
+		FramePacer pacer = new FramePacer(paceMode != null ? paceMode : FramePacer.Mode.SOURCE_RATE, VIDEO_GRABBER.getFrameRate());
+		NativeMemory.Stream nativeStream = NativeMemory.open(videoPath, leakCheckFrames);
+		try {
+			while (!mStop && IsPreviewOpen(preview)) {
+				long decodeStart = System.nanoTime();
+				FrameEvents.Grab grabEvent = FrameEvents.beginGrab();
+				tempVideoFrame = VIDEO_GRABBER.grabImage();
+				FrameEvents.endGrab(grabEvent, tempVideoFrame != null ? tempVideoFrame.imageWidth : 0, tempVideoFrame != null ? tempVideoFrame.imageHeight : 0);
+			    if (tempVideoFrame == null) {
+			      stop();
+			      break;
+			    }
+			    long decodeNanos = System.nanoTime() - decodeStart;
+			    if (!waitForFrame(pacer, tempVideoFrame.timestamp)) break;
+			    decodeStart = System.nanoTime();
+			    mRgbFrame = ImageConverter.toMat(tempVideoFrame);
+			    Metrics.record(Metrics.Stage.DECODE, decodeNanos + System.nanoTime() - decodeStart);
+			    if (mRgbFrame == null) {
+			      continue;
+			    }
+				// temporaries of the frame are freed at the end of it, not by the GC
+				try (PointerScope frameScope = new PointerScope()) {
+					// crop the frame as square one
+					mCroppedRgb = mSquareCrop.get(mRgbFrame);
+					// the overlay is drawn after detection and inference, they see the clean frame
+					faceBox facebox = faceTracker.extract_facebox(mCroppedRgb, 0.8f, false);
+					ShowPreview(preview, mCroppedRgb, facebox, DetectLivenessFromPreview(mCroppedRgb, facebox));
 				}
-				ellipse (mCroppedRgb, new Point(mEllipseCenterX, mEllipseCenterY), 
-						new Size(mEllipseSizeX, mEllipseSizeY), 0, 0, 360, 
-						new Scalar(0, 255, 0, 0) , 2, LINE_8, 0);
-			}else {
-				resultString = "Fit Face!";
-			}
-			
-			putText(mCroppedRgb, resultString,
-	            		new Point(mPreviewSize / 2 - 50, mPreviewSize - 30), CV_FONT_HERSHEY_SIMPLEX, 1,
-	    				new Scalar(0, 255, 0, 0), 1, LINE_AA, false);
-			mainframe.showImage(converter.convert(mCroppedRgb));
-			try {
-				Thread.sleep(30);
-			} catch (InterruptedException ex) {
-				System.out.println(ex.getMessage());
-				VIDEO_GRABBER.stop();
-				VIDEO_GRABBER.release();
-				VIDEO_GRABBER.close();
-			}
-			//mCroppedRgb.release();
-		}//while (!mStop && mainframe.isVisible()) 
+				// leak check after the frame, so it can't mask an exception of the frame
+				nativeStream.frame();
+			}//while (!mStop && mainframe.isVisible()) 
+		} finally {
+			nativeStream.close();
+		}
 		VIDEO_GRABBER.stop();
 		VIDEO_GRABBER.release();
 		VIDEO_GRABBER.close();
-		mainframe.setVisible(false);
+		if (preview != null) preview.close();
 	}
 	
 	private static boolean DetectLivenessFromVideoFfmpeg(String videoPath) throws IOException
@@ -699,19 +973,18 @@ public class App {
 		}
 		
 		FFmpegFrameGrabber VIDEO_GRABBER = new FFmpegFrameGrabber(videoPath);
-		Mat sample_frame;
+		FrameSampler sampler;
 		int previewWidth = 1024, previewHeight = 576;
 		try {
+			// the file is opened once, frame size and duration come from the container
 			VIDEO_GRABBER.start();
-			tempVideoFrame = VIDEO_GRABBER.grabImage();
-			if (tempVideoFrame != null) {
-				sample_frame = toJavaCvMat.convert(tempVideoFrame);
-				previewWidth = sample_frame.cols(); 
-				previewHeight = sample_frame.rows();
+			if (VIDEO_GRABBER.getImageWidth() > 0 && VIDEO_GRABBER.getImageHeight() > 0) {
+				previewWidth = VIDEO_GRABBER.getImageWidth();
+				previewHeight = VIDEO_GRABBER.getImageHeight();
 			}
-
-			VIDEO_GRABBER.stop();
-			VIDEO_GRABBER.release();
+			System.out.println("video size = " + previewWidth + "x" + previewHeight
+					+ ", duration = " + VIDEO_GRABBER.getLengthInTime() / 1000 + " ms");
+			sampler = FrameSampler.create(VIDEO_GRABBER, sampleOption);
 		} catch (FrameGrabber.Exception e) {
 			e.printStackTrace();
 			VIDEO_GRABBER.stop();
@@ -724,75 +997,215 @@ public class App {
 //		mainframe.setDefaultCloseOperation(javax.swing.JFrame.EXIT_ON_CLOSE);
 //		mainframe.setLocationRelativeTo(null);
 //		mainframe.setVisible(true);
-		boolean bMustResize = false;
-		if (previewHeight > previewWidth){
-			// portrait video
-			if (previewHeight > mLandscapeWidth) {
-				bMustResize = true;
-				mPreviewHeight = mLandscapeWidth;
-				mPreviewWidth = (int)((float)mPreviewHeight * (float)previewWidth / (float)previewHeight) ;
-			}else {
-				mPreviewHeight = previewHeight;
-				mPreviewWidth = previewWidth;
-			}
-		}else{
-			// landscape video
-			if (previewWidth > mLandscapeWidth) {
-				bMustResize = true;
-				mPreviewWidth = mLandscapeWidth;
-				mPreviewHeight = (int)((float)mPreviewWidth * (float)previewHeight / (float) previewWidth) ;
-			}else {
-				mPreviewHeight = previewHeight;
-				mPreviewWidth = previewWidth;
-			}
-		}
+		SetDecodeSize(VIDEO_GRABBER, videoPath, previewWidth, previewHeight);
 //		mainframe.setCanvasSize(mLandscapeWidth / 2, mLandscapeWidth / 2);
 		mCroppedRgb = new Mat(mPreviewWidth, mPreviewHeight);
-		VIDEO_GRABBER.start();
+		faceTracker.reset();
+		FramePacer pacer = new FramePacer(paceMode != null ? paceMode : FramePacer.Mode.FAST, VIDEO_GRABBER.getFrameRate());
+		LivenessDecision decision = new LivenessDecision(minFrames, maxFrames);
+		NativeMemory.Stream nativeStream = NativeMemory.open(videoPath, leakCheckFrames);
+		try {
 //		while (!mStop && mainframe.isVisible()) {
-		while (!mStop) {
-			tempVideoFrame = VIDEO_GRABBER.grabImage();
-		    if (tempVideoFrame == null) {
-		      stop();
-		      break;
-		    }
-		    mRgbFrame = new OpenCVFrameConverter.ToMat().convert(tempVideoFrame);
-		    if (mRgbFrame == null) {
-		      continue;
-		    }
-//		    if (bMustResize) {
-//				resize(mRgbFrame, mCroppedRgb, new Size(mPreviewWidth, mPreviewHeight));
-//		    }else {
-//		    	mRgbFrame.copyTo(mCroppedRgb);
-//		    }
-			Mat face_image = faceDetector.extract_facebox_area(mRgbFrame, 0.89f, false);
-//			String resultString;
-			if (face_image ==null) {
-				return false;
-			}else {
-				boolean liveness = DetectLivenessFromFrame(face_image);
-//				if (!liveness)
-//					return false;
-			}
-//			mainframe.showImage(converter.convert(face_image));
-			try {
-				Thread.sleep(30);
-			} catch (InterruptedException ex) {
-				System.out.println(ex.getMessage());
-				VIDEO_GRABBER.stop();
-				VIDEO_GRABBER.release();
-				VIDEO_GRABBER.close();
-				return false;
-			}
-			//mCroppedRgb.release();
-		}//while (!mStop && mainframe.isVisible()) 
+			while (!mStop) {
+				long decodeStart = System.nanoTime();
+				FrameEvents.Grab grabEvent = FrameEvents.beginGrab();
+				tempVideoFrame = sampler.next();
+				FrameEvents.endGrab(grabEvent, tempVideoFrame != null ? tempVideoFrame.imageWidth : 0, tempVideoFrame != null ? tempVideoFrame.imageHeight : 0);
+			    if (tempVideoFrame == null) {
+			      stop();
+			      break;
+			    }
+			    long decodeNanos = System.nanoTime() - decodeStart;
+			    if (!waitForFrame(pacer, tempVideoFrame.timestamp)) {
+					VIDEO_GRABBER.stop();
+					VIDEO_GRABBER.release();
+					VIDEO_GRABBER.close();
+					return false;
+			    }
+			    decodeStart = System.nanoTime();
+			    mRgbFrame = ImageConverter.toMat(tempVideoFrame);
+			    Metrics.record(Metrics.Stage.DECODE, decodeNanos + System.nanoTime() - decodeStart);
+			    if (mRgbFrame == null) {
+			      continue;
+			    }
+				// temporaries of the frame are freed at the end of it, not by the GC
+				try (PointerScope frameScope = new PointerScope()) {
+				    // mRgbFrame is mPreviewWidth x mPreviewHeight, scaled by the decoder. The faces are
+				    // searched on it and cut from the full resolution frame
+					if (mMultiFace) {
+						List<Boolean> results = DetectLivenessFromFaces(mRgbFrame, tempVideoFrame.timestamp, 0.89f);
+						if (results.isEmpty()) {
+							return false;
+						}
+					}else {
+						Mat face_image = faceTracker.extract_facebox_area(mRgbFrame, tempVideoFrame.timestamp, mDetectScaler, 0.89f);
+//					String resultString;
+						if (face_image ==null) {
+							return false;
+						}else {
+							// stop decoding as soon as the verdict is certain
+							if (decision.add(GetFakeScoreFromFrame(face_image)) != LivenessDecision.Verdict.UNDECIDED) {
+								break;
+							}
+						}
+					}
+//				mainframe.showImage(ImageConverter.toFrame(face_image));
+					//mCroppedRgb.release();
+				}
+				// leak check after the frame, so it can't mask an exception of the frame
+				nativeStream.frame();
+			}//while (!mStop && mainframe.isVisible()) 
+		} finally {
+			mDetectScaler.close();
+			nativeStream.close();
+		}
 		VIDEO_GRABBER.stop();
 		VIDEO_GRABBER.release();
 		VIDEO_GRABBER.close();
 //		mainframe.setVisible(false);
-		return true;
+		if (mMultiFace) return true;
+		return FinishDecision(decision);
+	}
+	
+	// same result as DetectLivenessFromVideoFfmpeg(), but decoding, face detection and liveness
+	// inference of consecutive frames overlap in FramePipeline
+	private static boolean DetectLivenessFromVideoPipeline(String videoPath) throws IOException
+	{
+		File f = new File(videoPath);
+		if (!f.exists()) {
+			System.out.println("Invalid video file, check if it exists.. " + videoPath);
+			logger.debug("Invalid video file, check if it exists.. " + videoPath);
+			return false;
+		}
+		if(f.isDirectory()) { 
+			System.out.println("Please specify full path of video file, not directory, " + videoPath);
+			logger.debug("Please specify full path of video file, not directory, " + videoPath);
+			return false;
+		}
+		
+		FFmpegFrameGrabber VIDEO_GRABBER = new FFmpegFrameGrabber(videoPath);
+		final boolean[] faceFound = {true};
+		LivenessDecision decision = new LivenessDecision(minFrames, maxFrames);
+		try {
+			VIDEO_GRABBER.start();
+			SetDecodeSize(VIDEO_GRABBER, videoPath, VIDEO_GRABBER.getImageWidth(), VIDEO_GRABBER.getImageHeight());
+			long frames = framePipeline.run(FrameSampler.create(VIDEO_GRABBER, sampleOption), mDetectScaler, result -> {
+				if (!result.hasFace()) {
+					faceFound[0] = false;
+					return false;
+				}
+				PrintFakeScore(result.getFakeScore());
+				return decision.add(result.getFakeScore()) == LivenessDecision.Verdict.UNDECIDED && !mStop;
+			});
+			System.out.println(frames + " frames processed");
+		} finally {
+			mDetectScaler.close();
+			VIDEO_GRABBER.stop();
+			VIDEO_GRABBER.release();
+			VIDEO_GRABBER.close();
+		}
+		return faceFound[0] && FinishDecision(decision);
 	}
 	
+	// Video larger than mLandscapeWidth on its long side is scaled down by swscale while it's decoded,
+	// the SSD sees 300x300 anyway and converting the full resolution frame would be thrown away.
+	// The liveness crop is cut from the full resolution frame, mDetectScaler fetches it for the scored
+	// frames only. Sets mPreviewWidth and mPreviewHeight to the decoded size
+	private static void SetDecodeSize(FFmpegFrameGrabber grabber, String videoPath, int previewWidth, int previewHeight)
+	{
+		float scale = DetectionScaler.scaleToLongSide(previewWidth, previewHeight, mLandscapeWidth);
+		mPreviewWidth = Math.round(previewWidth / scale);
+		mPreviewHeight = Math.round(previewHeight / scale);
+		if (mDetectScaler.start(grabber, videoPath)) {
+			System.out.println("decoding at " + mPreviewWidth + "x" + mPreviewHeight);
+		}
+	}
+
+	// fake score of the face image, 1 (fake) if the model fails
+	private static float GetFakeScoreFromFrame(Mat frame)
+	{
+		Image img = ImageConverter.toImage(frame);
+		try {
+			float score = livenessDetector.getFakeScore(img);
+			PrintFakeScore(score);
+			return score;
+		} catch (TranslateException e) {
+			e.printStackTrace();
+			return 1f;
+		}
+	}
+
+	// the detectors only log at debug level, the interactive modes show every score
+	private static void PrintFakeScore(float score)
+	{
+		System.out.println("fake score = " + Float.toString(score));
+		logger.info("fake score = " + Float.toString(score));
+	}
+
+	private static boolean FinishDecision(LivenessDecision decision)
+	{
+		LivenessDecision.Verdict verdict = decision.finish();
+		System.out.println(verdict + " after " + decision.getFrames() + " frames, " + decision.getLiveFrames()
+				+ " live, mean fake score = " + decision.getMeanScore());
+		logger.info(verdict + " after " + decision.getFrames() + " frames");
+		return verdict == LivenessDecision.Verdict.LIVE;
+	}
+
+	// wait until the frame is due, false if interrupted
+	private static boolean waitForFrame(FramePacer pacer, long timestampUs)
+	{
+		try {
+			pacer.pace(timestampUs);
+			return true;
+		} catch (InterruptedException ex) {
+			System.out.println(ex.getMessage());
+			return false;
+		}
+	}
+
+	// centered square crop of previewWidth x previewHeight frames
+	private static void InitSquareCrop(int previewWidth, int previewHeight)
+	{
+		if (mSquareCrop != null) mSquareCrop.close();
+		// LatestFrameGrabber rotates 3 buffers, the other sources reuse one
+		if (previewHeight > previewWidth) {
+			mSquareCrop = new RoiCache(0, (previewHeight - previewWidth) / 2, previewWidth, previewWidth, 3);
+		} else {
+			mSquareCrop = new RoiCache((previewWidth - previewHeight) / 2, 0, previewHeight, previewHeight, 3);
+		}
+	}
+
+	// capture.read() in two steps, only retrieve() is recorded as the decode stage:
+	// grab() mostly waits for the camera's next frame
+	private static boolean readFrame(VideoCapture capture, Mat frame)
+	{
+		FrameEvents.Grab event = FrameEvents.beginGrab();
+		boolean read = capture.grab();
+		long start = System.nanoTime();
+		read = read && capture.retrieve(frame);
+		long decodeNanos = System.nanoTime() - start;
+		FrameEvents.endGrab(event, read ? frame.cols() : 0, read ? frame.rows() : 0);
+		if (!read) return false;
+		Metrics.record(Metrics.Stage.DECODE, decodeNanos);
+		return true;
+	}
+
+	// newest camera frame, null at the end of the stream or if interrupted
+	private static Mat readLatestFrame(LatestFrameGrabber grabber) throws IOException
+	{
+		FrameEvents.Grab event = FrameEvents.beginGrab();
+		Mat frame = null;
+		try {
+			frame = grabber.read();
+			return frame;
+		} catch (InterruptedException ex) {
+			System.out.println(ex.getMessage());
+			return null;
+		} finally {
+			FrameEvents.endGrab(event, frame != null ? frame.cols() : 0, frame != null ? frame.rows() : 0);
+		}
+	}
+
 	private static boolean checkfit(faceBox box) {
 		float width = box.x_right - box.x_left;
 		float height = box.y_bottom - box.y_top;
@@ -0,0 +1,119 @@
+package LivenessDetect;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+// Scores many image and video files with a pool of worker threads sharing one LivenessScorer.
+// One record per file is written as soon as the file is done (JSON lines or CSV),
+// in completion order, followed by a throughput summary on the console.
+public class BatchScorer {
+	private static final Logger logger = LoggerFactory.getLogger(BatchScorer.class);
+	private final LivenessScorer scorer;
+	private final int threads;
+	private final AtomicInteger[] verdicts = new AtomicInteger[ScoreResult.Verdict.values().length];
+	private final AtomicLong frames = new AtomicLong();
+
+	// threads should not be more than the pool size of the detectors behind scorer
+	public BatchScorer(LivenessScorer scorer, int threads)
+	{
+		if (threads < 1) {
+			throw new IllegalArgumentException("thread count must be positive, " + threads);
+		}
+		this.scorer = scorer;
+		this.threads = threads;
+		for (int i = 0; i < verdicts.length; i++) {
+			verdicts[i] = new AtomicInteger();
+		}
+	}
+
+	// Image and video files under the directory, or the paths listed in the file one per line
+	// (blank lines and lines starting with # are skipped)
+	public static List<String> listInputs(String path) throws IOException
+	{
+		File f = new File(path);
+		List<String> inputs = new ArrayList<String>();
+		if (f.isDirectory()) {
+			try (Stream<Path> files = Files.walk(f.toPath())) {
+				files.filter(Files::isRegularFile)
+					.map(Path::toString)
+					.filter(p -> LivenessScorer.isImage(p) || LivenessScorer.isVideo(p))
+					.forEach(inputs::add);
+			}
+			Collections.sort(inputs);
+		} else {
+			for (String line : Files.readAllLines(Paths.get(path), StandardCharsets.UTF_8)) {
+				line = line.trim();
+				if (line.isEmpty() || line.startsWith("#")) continue;
+				inputs.add(line);
+			}
+		}
+		return inputs;
+	}
+
+	// score all inputs, every record is flushed to out as soon as its file is done
+	public void run(List<String> inputs, Writer out, boolean csv) throws IOException, InterruptedException
+	{
+		if (csv) {
+			out.write(ScoreResult.CSV_HEADER);
+			out.write('\n');
+			out.flush();
+		}
+		long start = System.nanoTime();
+		ExecutorService workers = Executors.newFixedThreadPool(threads);
+		try {
+			for (String input : inputs) {
+				workers.execute(() -> {
+					ScoreResult result = scorer.score(input);
+					verdicts[result.getVerdict().ordinal()].incrementAndGet();
+					frames.addAndGet(result.getFrames());
+					String record = csv ? result.toCsv() : result.toJson();
+					synchronized (out) {
+						try {
+							out.write(record);
+							out.write('\n');
+							out.flush();
+						} catch (IOException e) {
+							logger.debug(e.toString());
+						}
+					}
+				});
+			}
+			workers.shutdown();
+			workers.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+		} finally {
+			workers.shutdownNow();
+		}
+		printSummary(inputs.size(), System.nanoTime() - start);
+	}
+
+	private void printSummary(int files, long nanos)
+	{
+		double seconds = nanos / 1e9;
+		StringBuilder sb = new StringBuilder("====== Batch summary ======\n");
+		sb.append(String.format(Locale.ROOT, "%d files, %d frames in %.2f s with %d threads%n", files, frames.get(), seconds, threads));
+		sb.append(String.format(Locale.ROOT, "%.2f files/s, %.2f frames/s%n",
+				seconds > 0 ? files / seconds : 0, seconds > 0 ? frames.get() / seconds : 0));
+		for (ScoreResult.Verdict v : ScoreResult.Verdict.values()) {
+			sb.append(v.name()).append(": ").append(verdicts[v.ordinal()].get()).append('\n');
+		}
+		System.out.print(sb);
+		logger.info(sb.toString());
+	}
+}
@@ -0,0 +1,182 @@
+package LivenessDetect;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.bytedeco.javacv.FFmpegFrameGrabber;
+import org.bytedeco.javacv.Frame;
+import org.bytedeco.javacv.FrameGrabber;
+import org.bytedeco.javacv.OpenCVFrameConverter;
+import org.bytedeco.opencv.opencv_core.Mat;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+// Face detection on ffmpeg video decoded at a reduced size.
+// The SSD resizes its input to 300x300 and the tracker matches templates on the whole frame, neither
+// needs more than a few hundred pixels. A video larger than maxSide on its long side is scaled down by
+// swscale while it's decoded, so the full resolution BGR frame is never built for the frames that are
+// only searched for faces. The boxes found on the decoded frame are mapped back with toFullResolution().
+// The liveness model still gets the face from the full resolution frame, a small face upscaled from the
+// decoded frame would lose its texture: fullResolutionFrame() fetches it from a second grabber of the
+// same file, for the frames that reach scoring only. Consecutive frames are decoded forward, a frame
+// further away is reached by seeking, which decodes from the key frame before it.
+// When every frame of a long clip is scored this decodes the video twice, --decode-width=0 then
+// decodes it once at full size.
+// Not thread safe, threads sharing one lock it around fullResolutionFrame() and the use of its result.
+public class DetectionScaler implements AutoCloseable {
+	private static final Logger logger = LoggerFactory.getLogger(DetectionScaler.class);
+	// 800x450, the size the preview of the video modes always meant to scale to
+	public static final int DEFAULT_MAX_SIDE = 800;
+	// a frame at most this far ahead of the full resolution grabber is reached by decoding forward
+	private static final long MAX_SKIP_US = 1000000;
+	private final int maxSide;
+	// factors from decoded to full resolution coordinates
+	private float scaleX = 1f;
+	private float scaleY = 1f;
+	private String source = null;
+	private FFmpegFrameGrabber fullGrabber = null;
+	private final OpenCVFrameConverter.ToMat converter = new OpenCVFrameConverter.ToMat();
+	private Mat fullFrame = null;
+	// timestamp of the last frame of fullGrabber, -1 before the first one
+	private long fullTimestamp = -1;
+	private long frameInterval = 0;
+
+	// maxSide 0 to decode at full resolution
+	public DetectionScaler(int maxSide)
+	{
+		if (maxSide < 0) {
+			throw new IllegalArgumentException("max side must not be negative, " + maxSide);
+		}
+		this.maxSide = maxSide;
+	}
+
+	// Factor from full resolution to decoded size of a width x height frame, 1 when it is not scaled.
+	// The decoded frame is round(width / scale) x round(height / scale)
+	public static float scaleToLongSide(int width, int height, int maxSide)
+	{
+		int longSide = Math.max(width, height);
+		if (maxSide <= 0 || width <= 0 || height <= 0 || longSide <= maxSide) return 1f;
+		return (float) longSide / maxSide;
+	}
+
+	// Scales the started grabber of the video file source down to maxSide on its long side, from its
+	// next frame on. Returns false when the video is small enough to be decoded as it is
+	public boolean start(FFmpegFrameGrabber grabber, String source)
+	{
+		closeFullGrabber();
+		this.source = source;
+		int width = grabber.getImageWidth();
+		int height = grabber.getImageHeight();
+		float scale = scaleToLongSide(width, height, maxSide);
+		scaleX = 1f;
+		scaleY = 1f;
+		if (scale == 1f) return false;
+		int decodedWidth = Math.round(width / scale);
+		int decodedHeight = Math.round(height / scale);
+		// the grabber rebuilds its swscale context when the requested size changes
+		grabber.setImageWidth(decodedWidth);
+		grabber.setImageHeight(decodedHeight);
+		// exact factors of the rounded size
+		scaleX = (float) width / decodedWidth;
+		scaleY = (float) height / decodedHeight;
+		double frameRate = grabber.getFrameRate();
+		frameInterval = frameRate > 0 ? Math.round(1000000 / frameRate) : 0;
+		return true;
+	}
+
+	public boolean isScaled()
+	{
+		return scaleX != 1f || scaleY != 1f;
+	}
+
+	// Full resolution frame of the decoded frame at timestamp, frame itself when the video is not scaled.
+	// Overwritten by the next call
+	public Mat fullResolutionFrame(Mat frame, long timestamp) throws FrameGrabber.Exception
+	{
+		if (!isScaled()) return frame;
+		if (timestamp == fullTimestamp && fullFrame != null) return fullFrame;
+		if (fullGrabber == null) {
+			fullGrabber = new FFmpegFrameGrabber(source);
+			fullGrabber.start();
+		}
+		Frame full = null;
+		long ahead = timestamp - fullTimestamp;
+		if (fullTimestamp >= 0 && ahead > 0 && ahead <= MAX_SKIP_US && frameInterval > 0) {
+			// the frames in between are decoded without the conversion to BGR
+			while (fullTimestamp + frameInterval * 3 / 2 < timestamp) {
+				Frame skipped = fullGrabber.grabFrame(false, true, false, false);
+				if (skipped == null) break;
+				fullTimestamp = skipped.timestamp;
+			}
+			full = fullGrabber.grabImage();
+			// variable frame rate can take it past the frame, seek instead
+			if (full != null && Math.abs(full.timestamp - timestamp) > frameInterval / 2) full = null;
+		}
+		if (full == null) {
+			fullGrabber.setTimestamp(timestamp);
+			full = fullGrabber.grabImage();
+		}
+		if (full == null || full.image == null) {
+			throw new FrameGrabber.Exception("no full resolution frame at " + timestamp + " us of " + source);
+		}
+		fullTimestamp = full.timestamp;
+		Mat mat = converter.convert(full);
+		// the converter hands the same view out again, the PointerScope of the frame it was made in
+		// must not free it. The view it replaces gets its extra reference back, as in ImageConverter
+		if (mat != fullFrame) {
+			if (fullFrame != null) fullFrame.releaseReference();
+			fullFrame = NativeMemory.keep(mat);
+		}
+		return fullFrame;
+	}
+
+	// box of the decoded frame in full resolution coordinates
+	public faceBox toFullResolution(faceBox box)
+	{
+		if (!isScaled()) return box;
+		return new faceBox(Math.round(box.x_left * scaleX), Math.round(box.y_top * scaleY),
+				Math.round(box.x_right * scaleX), Math.round(box.y_bottom * scaleY));
+	}
+
+	public ArrayList<faceBox> toFullResolution(List<faceBox> boxes)
+	{
+		ArrayList<faceBox> full = new ArrayList<faceBox>(boxes.size());
+		for (faceBox box : boxes) {
+			full.add(toFullResolution(box));
+		}
+		return full;
+	}
+
+	// boxes of the decoded frame, scaled in place
+	public void toFullResolution(FaceBoxBuffer boxes)
+	{
+		if (isScaled()) boxes.scale(scaleX, scaleY);
+	}
+
+	// ends the video, start() begins the next one
+	@Override
+	public void close()
+	{
+		closeFullGrabber();
+		scaleX = 1f;
+		scaleY = 1f;
+	}
+
+	private void closeFullGrabber()
+	{
+		if (fullFrame != null) {
+			fullFrame.releaseReference();
+			fullFrame = null;
+		}
+		fullTimestamp = -1;
+		if (fullGrabber == null) return;
+		try {
+			fullGrabber.stop();
+			fullGrabber.release();
+			fullGrabber.close();
+		} catch (Exception e) {
+			logger.debug(e.toString());
+		}
+		fullGrabber = null;
+	}
+}
@@ -0,0 +1,270 @@
+package LivenessDetect;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+import ai.djl.modality.cv.Image;
+import org.bytedeco.javacpp.Pointer;
+import org.bytedeco.javacv.FFmpegFrameGrabber;
+import org.bytedeco.javacv.Frame;
+import org.bytedeco.opencv.opencv_core.Mat;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+// Headless throughput and tail latency benchmark of the whole frame path:
+// decode scaled down -> FaceDetector.getFaceBoxes -> face crop of the full resolution frame -> Mat to Image
+// -> liveness model.
+// Every video is run once for every thread count and batch size. Each of the threads decodes
+// the whole video with its own grabber; with batch size 1 every face goes through
+// LivenessDetector.detectLiveness(), with larger ones up to batch faces go through getFakeScores().
+// The latency of a frame runs from the start of its decode to its fake score, so a frame
+// waiting for its batch to fill counts that time too.
+// The report has frames/s, p50/p95/p99 frame latency, peak physical memory (RSS) and peak
+// JavaCPP native bytes of every run, as one JSON document.
+public class EndToEndBenchmark {
+	private static final Logger logger = LoggerFactory.getLogger(EndToEndBenchmark.class);
+	// memory is sampled this often while a run is going
+	private static final long MEMORY_SAMPLE_MS = 50;
+	private final FaceDetector faceDetector;
+	private final LivenessDetector livenessDetector;
+	private float faceThreshold = 0.89f;
+	// long side videos are decoded at, 0 for full size, see DetectionScaler
+	private int detectWidth = DetectionScaler.DEFAULT_MAX_SIDE;
+
+	// the pools of the detectors should be as large as the largest thread count
+	public EndToEndBenchmark(FaceDetector faceDetector, LivenessDetector livenessDetector)
+	{
+		this.faceDetector = faceDetector;
+		this.livenessDetector = livenessDetector;
+	}
+
+	public void setDetectWidth(int detectWidth)
+	{
+		this.detectWidth = detectWidth;
+	}
+
+	// result of one video, thread count and batch size
+	public static class Run {
+		final String video;
+		final int threads;
+		final int batch;
+		final LatencyHistogram latency = new LatencyHistogram();
+		final AtomicLong frames = new AtomicLong();
+		final AtomicLong faces = new AtomicLong();
+		final AtomicLong nativePeak = new AtomicLong();
+		final AtomicLong physicalPeak = new AtomicLong();
+		long nanos = 0;
+
+		Run(String video, int threads, int batch)
+		{
+			this.video = video;
+			this.threads = threads;
+			this.batch = batch;
+		}
+
+		public double getFramesPerSecond()
+		{
+			return nanos > 0 ? frames.get() * 1e9 / nanos : 0;
+		}
+
+		void sampleMemory()
+		{
+			nativePeak.accumulateAndGet(Pointer.totalBytes(), Math::max);
+			physicalPeak.accumulateAndGet(Pointer.physicalBytes(), Math::max);
+		}
+
+		String toJson()
+		{
+			StringBuilder sb = new StringBuilder(256);
+			sb.append("{\"video\":").append(ScoreResult.jsonString(video));
+			sb.append(",\"threads\":").append(threads);
+			sb.append(",\"batch\":").append(batch);
+			sb.append(",\"frames\":").append(frames.get());
+			sb.append(",\"faces\":").append(faces.get());
+			sb.append(",\"seconds\":").append(format(nanos / 1e9));
+			sb.append(",\"fps\":").append(format(getFramesPerSecond()));
+			sb.append(",\"p50_ms\":").append(format(latency.percentileNanos(0.50) / 1e6));
+			sb.append(",\"p95_ms\":").append(format(latency.percentileNanos(0.95) / 1e6));
+			sb.append(",\"p99_ms\":").append(format(latency.percentileNanos(0.99) / 1e6));
+			sb.append(",\"max_ms\":").append(format(latency.getMaxNanos() / 1e6));
+			sb.append(",\"peak_rss_bytes\":").append(physicalPeak.get());
+			sb.append(",\"peak_native_bytes\":").append(nativePeak.get());
+			return sb.append('}').toString();
+		}
+
+		@Override
+		public String toString()
+		{
+			return String.format(Locale.ROOT,
+					"%s threads=%d batch=%d: %d frames %d faces, %.2f fps, p50 %.2f ms p95 %.2f ms p99 %.2f ms, rss %s native %s",
+					video, threads, batch, frames.get(), faces.get(), getFramesPerSecond(),
+					latency.percentileNanos(0.50) / 1e6, latency.percentileNanos(0.95) / 1e6, latency.percentileNanos(0.99) / 1e6,
+					Pointer.formatBytes(physicalPeak.get()), Pointer.formatBytes(nativePeak.get()));
+		}
+	}
+
+	// run every combination, the report is written by writeReport()
+	public List<Run> run(List<String> videos, int[] threadCounts, int[] batchSizes)
+			throws IOException, InterruptedException
+	{
+		List<Run> runs = new ArrayList<Run>();
+		for (String video : videos) {
+			for (int threads : threadCounts) {
+				for (int batch : batchSizes) {
+					Run run = run(video, threads, batch);
+					System.out.println(run);
+					logger.info(run.toString());
+					runs.add(run);
+				}
+			}
+		}
+		return runs;
+	}
+
+	public Run run(String video, int threads, int batch) throws InterruptedException, IOException
+	{
+		if (threads < 1 || batch < 1) {
+			throw new IllegalArgumentException("threads and batch must be positive, " + threads + ", " + batch);
+		}
+		Run run = new Run(video, threads, batch);
+		ExecutorService workers = Executors.newFixedThreadPool(threads);
+		Thread monitor = new Thread(() -> {
+			try {
+				while (!Thread.currentThread().isInterrupted()) {
+					run.sampleMemory();
+					Thread.sleep(MEMORY_SAMPLE_MS);
+				}
+			} catch (InterruptedException e) {
+				// run is done
+			}
+		}, "bench-memory");
+		monitor.setDaemon(true);
+		List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+		for (int i = 0; i < threads; i++) {
+			tasks.add(() -> {
+				decodeVideo(run);
+				return null;
+			});
+		}
+		monitor.start();
+		long start = System.nanoTime();
+		try {
+			for (Future<Void> f : workers.invokeAll(tasks)) {
+				f.get();
+			}
+		} catch (ExecutionException e) {
+			throw new IOException("benchmark of " + video + " failed", e.getCause());
+		} finally {
+			run.nanos = System.nanoTime() - start;
+			workers.shutdownNow();
+			monitor.interrupt();
+			monitor.join();
+		}
+		run.sampleMemory();
+		return run;
+	}
+
+	private void decodeVideo(Run run) throws Exception
+	{
+		FFmpegFrameGrabber grabber = new FFmpegFrameGrabber(run.video);
+		List<Mat> pending = new ArrayList<Mat>(run.batch);
+		long[] starts = new long[run.batch];
+		DetectionScaler scaler = new DetectionScaler(detectWidth);
+		try {
+			grabber.start();
+			scaler.start(grabber, run.video);
+			FrameSampler sampler = new FrameSampler(grabber);
+			for (;;) {
+				long start = System.nanoTime();
+				Frame frame = sampler.next();
+				if (frame == null) break;
+				Mat mat = ImageConverter.toMat(frame);
+				if (mat == null) continue;
+				run.frames.incrementAndGet();
+				// as the ffmpeg mode, the face is cut from the full resolution frame
+				List<faceBox> boxes = scaler.toFullResolution(faceDetector.getFaceBoxes(mat, faceThreshold, false));
+				Mat face = boxes.isEmpty() ? null : faceDetector.extract_facebox_area(
+						scaler.fullResolutionFrame(mat, frame.timestamp), boxes, false);
+				if (face == null) {
+					run.latency.record(System.nanoTime() - start);
+					continue;
+				}
+				run.faces.incrementAndGet();
+				if (run.batch == 1) {
+					// as App.DetectLivenessFromFrame()
+					try {
+						livenessDetector.detectLiveness(MatImageFactory.getInstance().fromImage(face));
+					} finally {
+						face.close();
+					}
+					run.latency.record(System.nanoTime() - start);
+					continue;
+				}
+				// the face is a view into a frame buffer of a grabber, keep a copy until the batch runs
+				starts[pending.size()] = start;
+				pending.add(face.clone());
+				face.close();
+				if (pending.size() == run.batch) {
+					scoreBatch(run, pending, starts);
+				}
+			}
+			if (!pending.isEmpty()) {
+				scoreBatch(run, pending, starts);
+			}
+		} finally {
+			for (Mat m : pending) {
+				m.close();
+			}
+			scaler.close();
+			grabber.stop();
+			grabber.release();
+			grabber.close();
+		}
+	}
+
+	private void scoreBatch(Run run, List<Mat> faces, long[] starts) throws Exception
+	{
+		List<Image> images = new ArrayList<Image>(faces.size());
+		for (Mat face : faces) {
+			images.add(MatImageFactory.getInstance().fromImage(face));
+		}
+		livenessDetector.getFakeScores(images);
+		long end = System.nanoTime();
+		for (int i = 0; i < faces.size(); i++) {
+			run.latency.record(end - starts[i]);
+			faces.get(i).close();
+		}
+		faces.clear();
+	}
+
+	// JSON report of the runs
+	public static void writeReport(List<Run> runs, Writer out) throws IOException
+	{
+		StringBuilder sb = new StringBuilder(1024);
+		sb.append("{\"java\":").append(ScoreResult.jsonString(System.getProperty("java.version")));
+		sb.append(",\"os\":").append(ScoreResult.jsonString(System.getProperty("os.name") + " " + System.getProperty("os.arch")));
+		sb.append(",\"cores\":").append(Runtime.getRuntime().availableProcessors());
+		sb.append(",\"runs\":[");
+		for (int i = 0; i < runs.size(); i++) {
+			if (i > 0) sb.append(',');
+			sb.append("\n").append(runs.get(i).toJson());
+		}
+		sb.append("\n]}\n");
+		out.write(sb.toString());
+		out.flush();
+	}
+
+	private static String format(double value)
+	{
+		return String.format(Locale.ROOT, "%.3f", value);
+	}
+}
@@ -0,0 +1,90 @@
+package LivenessDetect;
+
+import java.util.Arrays;
+
+// Reusable packed list of face boxes: 4 ints (x_left, y_top, x_right, y_bottom)
+// and 1 float confidence per face, no object per face.
+// Arrays grow when needed and are kept by clear(), so a buffer reused from frame to frame
+// stops allocating once it has seen the largest number of faces.
+public class FaceBoxBuffer {
+	private int[] boxes;
+	private float[] confidences;
+	private int count = 0;
+
+	public FaceBoxBuffer()
+	{
+		this(8);
+	}
+
+	public FaceBoxBuffer(int capacity)
+	{
+		boxes = new int[4 * Math.max(capacity, 1)];
+		confidences = new float[Math.max(capacity, 1)];
+	}
+
+	public void clear()
+	{
+		count = 0;
+	}
+
+	public void add(int x_left, int y_top, int x_right, int y_bottom, float confidence)
+	{
+		if (count == confidences.length) {
+			confidences = Arrays.copyOf(confidences, count * 2);
+			boxes = Arrays.copyOf(boxes, count * 8);
+		}
+		int i = 4 * count;
+		boxes[i] = x_left;
+		boxes[i + 1] = y_top;
+		boxes[i + 2] = x_right;
+		boxes[i + 3] = y_bottom;
+		confidences[count] = confidence;
+		count++;
+	}
+
+	public int size()
+	{
+		return count;
+	}
+
+	public int x_left(int i)
+	{
+		return boxes[4 * i];
+	}
+
+	public int y_top(int i)
+	{
+		return boxes[4 * i + 1];
+	}
+
+	public int x_right(int i)
+	{
+		return boxes[4 * i + 2];
+	}
+
+	public int y_bottom(int i)
+	{
+		return boxes[4 * i + 3];
+	}
+
+	public float confidence(int i)
+	{
+		return confidences[i];
+	}
+
+	// multiply the coordinates of every box, e.g. to map them to another resolution
+	public void scale(float scaleX, float scaleY)
+	{
+		for (int i = 0; i < count; i++) {
+			boxes[4 * i] = Math.round(boxes[4 * i] * scaleX);
+			boxes[4 * i + 1] = Math.round(boxes[4 * i + 1] * scaleY);
+			boxes[4 * i + 2] = Math.round(boxes[4 * i + 2] * scaleX);
+			boxes[4 * i + 3] = Math.round(boxes[4 * i + 3] * scaleY);
+		}
+	}
+
+	public faceBox get(int i)
+	{
+		return new faceBox(x_left(i), y_top(i), x_right(i), y_bottom(i));
+	}
+}
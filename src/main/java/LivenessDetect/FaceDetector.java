@@ -1,18 +1,25 @@
 package LivenessDetect;
 
 import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.List;
 
 import static org.bytedeco.opencv.global.opencv_core.CV_32F;
+import static org.bytedeco.opencv.global.opencv_core.CV_8UC3;
 import static org.bytedeco.opencv.global.opencv_dnn.blobFromImage;
+import static org.bytedeco.opencv.global.opencv_dnn.blobFromImages;
 import static org.bytedeco.opencv.global.opencv_dnn.readNetFromCaffe;
 import static org.bytedeco.opencv.global.opencv_imgproc.rectangle;
 import static org.bytedeco.opencv.global.opencv_imgproc.resize;
 import static org.bytedeco.opencv.global.opencv_imgcodecs.imwrite;
 
+import org.bytedeco.javacpp.BytePointer;
 import org.bytedeco.javacpp.indexer.FloatIndexer;
 import org.bytedeco.opencv.opencv_core.Mat;
-import org.bytedeco.opencv.opencv_core.Point;
+import org.bytedeco.opencv.opencv_core.MatVector;
 import org.bytedeco.opencv.opencv_core.Range;
 import org.bytedeco.opencv.opencv_core.Rect;
 import org.bytedeco.opencv.opencv_core.Scalar;
@@ -21,18 +28,39 @@ import org.bytedeco.opencv.opencv_dnn.Net;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-public class FaceDetector {
+public class FaceDetector implements AutoCloseable {
 	private static final Logger logger = LoggerFactory.getLogger(LivenessDetector.class);
 	private static final String PROTO_FILE = "deploy.prototxt";
-    private static final String CAFFE_MODEL_FILE = "res10_300x300_ssd_iter_140000.caffemodel";
+    static final String CAFFE_MODEL_FILE = "res10_300x300_ssd_iter_140000.caffemodel";
     private String modelDir = "/home/model/";
-    private static Net net = null;
+    private static final Size INPUT_SIZE = new Size(300, 300);
+    private static final Scalar MEAN = new Scalar(104.0, 177.0, 123.0, 0);
+    private static final Scalar BLUE = new Scalar(255, 0, 0, 0);
+    private static final Scalar GREEN = new Scalar(0, 255, 0, 0);
+    // net.setInput() and net.forward() must not be interleaved between threads,
+    // so every call checks out its own Net (with its buffers) from the pool
+    private int poolSize = 1;
+    private ResourcePool<Workspace> workspaces = null;
     
     public FaceDetector(String modelDir)
     {
     	this.modelDir = modelDir;
     }
     
+    public FaceDetector(String modelDir, int poolSize)
+    {
+    	this.modelDir = modelDir;
+    	if (poolSize < 1) {
+    		throw new IllegalArgumentException("net pool size must be positive, " + poolSize);
+    	}
+    	this.poolSize = poolSize;
+    }
+    
+    public int getPoolSize()
+    {
+    	return poolSize;
+    }
+    
 	public boolean init()
 	{
     	// https://github.com/deepjavalibrary/djl/issues/147
@@ -52,7 +80,14 @@ public class FaceDetector {
     		String proto_path = modelDir + "/" + PROTO_FILE;
     		String caffe_model_path = modelDir + "/" + CAFFE_MODEL_FILE; 
         	
-    		net = readNetFromCaffe(proto_path, caffe_model_path);
+    		// read model files once, every Net of the pool is created from memory
+    		byte[] proto = Files.readAllBytes(Paths.get(proto_path));
+    		byte[] caffe_model = Files.readAllBytes(Paths.get(caffe_model_path));
+    		try (BytePointer proto_buf = new BytePointer(proto);
+    				BytePointer caffe_model_buf = new BytePointer(caffe_model)) {
+    			workspaces = new ResourcePool<Workspace>(poolSize, () -> new Workspace(
+    					readNetFromCaffe(proto_buf, proto.length, caffe_model_buf, caffe_model.length)));
+    		}
         	
     	}catch(Exception e)
     	{
@@ -63,76 +98,272 @@ public class FaceDetector {
 		return true;
     }
 
-    public static void detectAndDraw(Mat image) {//detect faces and draw a blue rectangle arroung each face
+    // Run every net of the pool on a synthetic frame before the first real one.
+    // The first forward pass of a Net sets up its layers and is much slower than the later ones.
+    // Call it before the detector is in use, it checks out the whole pool
+    public void warmUp(int iterations)
+    {
+    	if (iterations <= 0) return;
+    	List<Workspace> taken = new ArrayList<Workspace>(poolSize);
+    	try (Mat frame = new Mat(480, 640, CV_8UC3, new Scalar(128.0, 128.0, 128.0, 0))) {
+    		for (int i = 0; i < poolSize; i++) {
+    			taken.add(acquireWorkspace());
+    		}
+    		for (Workspace ws : taken) {
+    			for (int n = 0; n < iterations; n++) {
+    				getFaceBoxes(ws, frame, 1f, false, ws.boxes);
+    			}
+    		}
+    	} finally {
+    		for (Workspace ws : taken) {
+    			workspaces.release(ws);
+    		}
+    	}
+    }
 
-        resize(image, image, new Size(300, 300));//resize the image to match the input size of the model
+    @Override
+    public void close()
+    {
+    	if (workspaces != null) {
+    		workspaces.close();
+    		workspaces = null;
+    	}
+    }
 
-        //create a 4-dimensional blob from image with NCHW (Number of images in the batch -for training only-, Channel, Height, Width) dimensions order,
-        //for more detailes read the official docs at https://docs.opencv.org/trunk/d6/d0f/group__dnn.html#gabd0e76da3c6ad15c08b01ef21ad55dd8
-        Mat blob = blobFromImage(image, 1.0, new Size(300, 300), 
-        		new Scalar(104.0, 177.0, 123.0, 0), false, false, CV_32F);
+    // Net and native buffers of one detection call, reused from frame to frame
+    // so the steady state of detection does not allocate any JavaCPP object
+    static final class Workspace implements AutoCloseable {
+    	final Net net;
+    	final Mat blob = new Mat();
+    	final Mat output = new Mat();
+    	final MatVector frames = new MatVector();
+    	final Rect rect = new Rect();
+    	final FaceBoxBuffer boxes = new FaceBoxBuffer();
+    	// 2d (number of detections x 7) view of output and its indexer,
+    	// rebuilt only when forward() reallocates the output
+    	private Mat detections = null;
+    	private FloatIndexer indexer = null;
+    	private long detectionsData = 0;
+    	private int detectionsCount = 0;
 
-        net.setInput(blob);//set the input to network model
-        Mat output = net.forward();//feed forward the input to the netwrok to get the output matrix
+    	Workspace(Net net)
+    	{
+    		this.net = net;
+    	}
 
-        Mat ne = new Mat(new Size(output.size(3), output.size(2)), CV_32F, output.ptr(0, 0));//extract a 2d matrix for 4d output matrix with form of (number of detections x 7)
+    	// feed blob forward and return the number of detections in output
+    	int forward()
+    	{
+    		net.setInput(blob);//set the input to network model
+    		net.forward(output);//feed forward the input to the netwrok to get the output matrix
+    		int count = output.size(2);
+    		if (count == 0) return 0;
+    		long data = output.data().address();
+    		if (indexer == null || data != detectionsData || count != detectionsCount) {
+    			releaseDetections();
+    			// kept past the frame's PointerScope, it's cached until output is reallocated
+    			detections = NativeMemory.keep(new Mat(count, output.size(3), CV_32F, output.ptr(0, 0)));
+    			indexer = detections.createIndexer();
+    			detectionsData = data;
+    			detectionsCount = count;
+    		}
+    		return count;
+    	}
 
-        FloatIndexer srcIndexer = ne.createIndexer(); // create indexer to access elements of the matric
+    	FloatIndexer detections()
+    	{
+    		return indexer;
+    	}
 
-        for (int i = 0; i < output.size(3); i++) {//iterate to extract elements
-            float confidence = srcIndexer.get(i, 2);
-            float f1 = srcIndexer.get(i, 3);
-            float f2 = srcIndexer.get(i, 4);
-            float f3 = srcIndexer.get(i, 5);
-            float f4 = srcIndexer.get(i, 6);
-            if (confidence > .6) {
-                float tx = f1 * 300;//top left point's x
-                float ty = f2 * 300;//top left point's y
-                float bx = f3 * 300;//bottom right point's x
-                float by = f4 * 300;//bottom right point's y
-                rectangle(image, new Rect(new Point((int) tx, (int) ty), new Point((int) bx, (int) by)), 
-                		new Scalar(255, 0, 0, 0));//print blue rectangle 
+    	private void releaseDetections()
+    	{
+    		if (indexer != null) {
+    			indexer.release();
+    			indexer = null;
+    		}
+    		if (detections != null) {
+    			detections.close();
+    			detections = null;
+    		}
+    	}
+
+    	@Override
+    	public void close()
+    	{
+    		releaseDetections();
+    		frames.close();
+    		rect.close();
+    		output.close();
+    		blob.close();
+    		net.close();
+    	}
+    }
+
+    private Workspace acquireWorkspace()
+    {
+    	try {
+    		return workspaces.acquire();
+    	} catch (InterruptedException e) {
+    		Thread.currentThread().interrupt();
+    		throw new IllegalStateException("interrupted while waiting for face detection net", e);
+    	}
+    }
+
+    private void drawBox(Workspace ws, Mat image, faceBox box, Scalar color)
+    {
+    	ws.rect.x(box.x_left).y(box.y_top).width(box.x_right - box.x_left).height(box.y_bottom - box.y_top);
+    	rectangle(image, ws.rect, color);
+    }
+
+    public void detectAndDraw(Mat image) {//detect faces and draw a blue rectangle arroung each face
+
+        resize(image, image, INPUT_SIZE);//resize the image to match the input size of the model
+
+        //create a 4-dimensional blob from image with NCHW (Number of images in the batch -for training only-, Channel, Height, Width) dimensions order,
+        //for more detailes read the official docs at https://docs.opencv.org/trunk/d6/d0f/group__dnn.html#gabd0e76da3c6ad15c08b01ef21ad55dd8
+        Workspace ws = acquireWorkspace();
+        try {
+            blobFromImage(image, ws.blob, 1.0, INPUT_SIZE, MEAN, false, false, CV_32F);
+            int count = ws.forward();
+            FloatIndexer srcIndexer = ws.detections(); // indexer to access elements of the (number of detections x 7) matrix
+            for (int i = 0; i < count; i++) {//iterate to extract elements
+                float confidence = srcIndexer.get(i, 2);
+                float f1 = srcIndexer.get(i, 3);
+                float f2 = srcIndexer.get(i, 4);
+                float f3 = srcIndexer.get(i, 5);
+                float f4 = srcIndexer.get(i, 6);
+                if (confidence > .6) {
+                    float tx = f1 * 300;//top left point's x
+                    float ty = f2 * 300;//top left point's y
+                    float bx = f3 * 300;//bottom right point's x
+                    float by = f4 * 300;//bottom right point's y
+                    drawBox(ws, image, new faceBox((int) tx, (int) ty, (int) bx, (int) by), BLUE);//print blue rectangle 
+                }
             }
+        } finally {
+            workspaces.release(ws);
         }
     }
 	
 	public ArrayList<faceBox> getFaceBoxes(Mat image, float threshold, boolean bDraw) {
+		Workspace ws = acquireWorkspace();
+		try {
+			return getFaceBoxes(ws, image, threshold, bDraw);
+		} finally {
+			workspaces.release(ws);
+		}
+	}
+
+	private ArrayList<faceBox> getFaceBoxes(Workspace ws, Mat image, float threshold, boolean bDraw) {
+		getFaceBoxes(ws, image, threshold, bDraw, ws.boxes);
+        ArrayList<faceBox> faceBoxes = new ArrayList<faceBox>(ws.boxes.size());
+        for (int i = 0; i < ws.boxes.size(); i++) {
+        	faceBoxes.add(ws.boxes.get(i));
+        }
+        return faceBoxes;
+    }
+
+	// Get the bounding box and confidence of every face in image into the reusable buffer,
+	// returns the number of faces
+	public int getFaceBoxes(Mat image, float threshold, FaceBoxBuffer faceBoxes) {
+		Workspace ws = acquireWorkspace();
+		try {
+			return getFaceBoxes(ws, image, threshold, false, faceBoxes);
+		} finally {
+			workspaces.release(ws);
+		}
+	}
+
+	private int getFaceBoxes(Workspace ws, Mat image, float threshold, boolean bDraw, FaceBoxBuffer faceBoxes) {
 		//   Get the bounding box of faces in image using dnn.
+		long start = System.nanoTime();
+		FrameEvents.Detection event = FrameEvents.beginDetection();
 		int cols = image.cols();
 		int rows = image.rows();
         //create a 4-dimensional blob from image with NCHW (Number of images in the batch -for training only-, Channel, Height, Width) dimensions order,
         //for more detailes read the official docs at https://docs.opencv.org/trunk/d6/d0f/group__dnn.html#gabd0e76da3c6ad15c08b01ef21ad55dd8
-        Mat blob = blobFromImage(image, 1.0, new Size(300, 300), 
-        		new Scalar(104.0, 177.0, 123.0, 0), false, false, CV_32F);
-
-        net.setInput(blob);//set the input to network model
-        Mat output = net.forward();//feed forward the input to the netwrok to get the output matrix
+        blobFromImage(image, ws.blob, 1.0, INPUT_SIZE, MEAN, false, false, CV_32F);
+        int count = ws.forward();
 
-        Mat ne = new Mat(new Size(output.size(3), output.size(2)), CV_32F, output.ptr(0, 0));//extract a 2d matrix for 4d output matrix with form of (number of detections x 7)
-
-        FloatIndexer srcIndexer = ne.createIndexer(); // create indexer to access elements of the matric
-        ArrayList<faceBox> faceBoxes = new ArrayList<faceBox>();
-        for (int i = 0; i < output.size(3); i++) {//iterate to extract elements
+        FloatIndexer srcIndexer = ws.detections(); // indexer to access elements of the (number of detections x 7) matrix
+        faceBoxes.clear();
+        for (int i = 0; i < count; i++) {//iterate to extract elements
             float confidence = srcIndexer.get(i, 2);
             float f1 = srcIndexer.get(i, 3);
             float f2 = srcIndexer.get(i, 4);
             float f3 = srcIndexer.get(i, 5);
             float f4 = srcIndexer.get(i, 6);
             if (confidence > threshold) {
-                float tx = f1 * cols;//top left point's x
-                float ty = f2 * rows;//top left point's y
-                float bx = f3 * cols;//bottom right point's x
-                float by = f4 * rows;//bottom right point's y
-                faceBox box = new faceBox((int) tx, (int) ty, (int) bx, (int) by);
-                if (bDraw)
-                	rectangle(image, new Rect(new Point((int) tx, (int) ty), new Point((int) bx, (int) by)), 
-                			new Scalar(255, 0, 0, 0));//print blue rectangle
-                faceBoxes.add(box);
+                int tx = (int) (f1 * cols);//top left point's x
+                int ty = (int) (f2 * rows);//top left point's y
+                int bx = (int) (f3 * cols);//bottom right point's x
+                int by = (int) (f4 * rows);//bottom right point's y
+                if (bDraw) {
+                	ws.rect.x(tx).y(ty).width(bx - tx).height(by - ty);
+                	rectangle(image, ws.rect, BLUE);//print blue rectangle
+                }
+                faceBoxes.add(tx, ty, bx, by, confidence);
             }
         }
-        return faceBoxes;
+        Metrics.record(Metrics.Stage.DETECT, System.nanoTime() - start);
+        Metrics.addFaces(faceBoxes.size());
+        FrameEvents.endDetection(event, 1, faceBoxes.size());
+        return faceBoxes.size();
     }
 
+	// Get the bounding box of faces in several frames with one forward pass.
+	// Result list i holds the boxes found in images.get(i), in image coordinates like getFaceBoxes()
+	public List<ArrayList<faceBox>> getFaceBoxesBatch(List<Mat> images, float threshold) {
+		List<ArrayList<faceBox>> faceBoxes = new ArrayList<ArrayList<faceBox>>(images.size());
+		for (int i = 0; i < images.size(); i++) {
+			faceBoxes.add(new ArrayList<faceBox>());
+		}
+		if (images.isEmpty()) return faceBoxes;
+		
+		long start = System.nanoTime();
+		FrameEvents.Detection event = FrameEvents.beginDetection();
+		int faces = 0;
+		Workspace ws = acquireWorkspace();
+		try {
+			// every image is resized to 300x300 and packed into one N x 3 x 300 x 300 blob
+			ws.frames.resize(images.size());
+			for (int i = 0; i < images.size(); i++) {
+				ws.frames.put(i, images.get(i));
+			}
+	        blobFromImages(ws.frames, ws.blob, 1.0, INPUT_SIZE, MEAN, false, false, CV_32F);
+	        // drop the frame headers so the vector does not keep frame data alive
+	        ws.frames.resize(0);
+
+	        // output is 1 x 1 x (number of detections of all images) x 7,
+	        // column 0 is the index of the image in the batch
+	        int count = ws.forward();
+	        FloatIndexer srcIndexer = ws.detections();
+	        for (int i = 0; i < count; i++) {
+	        	int imageId = (int) srcIndexer.get(i, 0);
+	        	float confidence = srcIndexer.get(i, 2);
+	        	if (imageId < 0 || imageId >= images.size() || confidence <= threshold) continue;
+	        	int cols = images.get(imageId).cols();
+	        	int rows = images.get(imageId).rows();
+	        	float tx = srcIndexer.get(i, 3) * cols;//top left point's x
+	        	float ty = srcIndexer.get(i, 4) * rows;//top left point's y
+	        	float bx = srcIndexer.get(i, 5) * cols;//bottom right point's x
+	        	float by = srcIndexer.get(i, 6) * rows;//bottom right point's y
+	        	faceBoxes.get(imageId).add(new faceBox((int) tx, (int) ty, (int) bx, (int) by));
+	        	faces++;
+	        }
+	        Metrics.addFaces(faces);
+	        // every frame of the batch is recorded with its share of the batch time
+	        long share = (System.nanoTime() - start) / images.size();
+	        for (int i = 0; i < images.size(); i++) {
+	        	Metrics.record(Metrics.Stage.DETECT, share);
+	        }
+		} finally {
+			workspaces.release(ws);
+			FrameEvents.endDetection(event, images.size(), faces);
+		}
+        return faceBoxes;
+	}
+
     public boolean box_in_image(faceBox box, Mat image) {
         // """Check if the box is in image"""
         int rows = image.rows();
@@ -198,9 +429,19 @@ public class FaceDetector {
 
 	
 	public faceBox extract_cnn_facebox(Mat image, float threshold, boolean bDraw)
+	{
+		Workspace ws = acquireWorkspace();
+		try {
+			return extract_cnn_facebox(ws, image, threshold, bDraw);
+		} finally {
+			workspaces.release(ws);
+		}
+	}
+
+	private faceBox extract_cnn_facebox(Workspace ws, Mat image, float threshold, boolean bDraw)
 	{
 		// Extract face area from image.
-		ArrayList<faceBox> raw_boxes = getFaceBoxes(image, threshold, true);
+		ArrayList<faceBox> raw_boxes = getFaceBoxes(ws, image, threshold, true);
 		for (int i=0; i< raw_boxes.size(); i++ ) {
 			// Move box down.
 			faceBox box = raw_boxes.get(i);
@@ -211,9 +452,7 @@ public class FaceDetector {
             faceBox facebox = get_square_box(box_moved);
             if (box_in_image(facebox, image)) {
                 if (bDraw) {
-                	Point pt1 = new Point(facebox.x_left, facebox.y_top);
-                	Point pt2 = new Point(facebox.x_right, facebox.y_bottom);
-                	rectangle(image, new Rect(pt1, pt2), new Scalar(0, 255, 0, 0));
+                	drawBox(ws, image, facebox, GREEN);
                 }
                 return facebox;
             }
@@ -223,34 +462,105 @@ public class FaceDetector {
 	
 	public Mat extract_facebox_area(Mat image, float threshold, boolean bDraw)
 	{
-		// Extract face area from image.
-		ArrayList<faceBox> raw_boxes = getFaceBoxes(image, threshold, bDraw);
-		for (int i=0; i< raw_boxes.size(); i++ ) {
-			// Move box down.
-			faceBox box = raw_boxes.get(i);
-			int height = box.y_bottom - box.y_top;
-            int off_x_left = (int) Math.abs(height * 0.45f);
-            int off_x_right = (int) Math.abs(height * 0.45f);
-            int off_y_top = (int) Math.abs(height * 0.3f);
-            int off_y_bottom = (int) Math.abs(height * 0.6f);
-            faceBox box_expanded = expand_box(box, off_x_left, off_x_right, off_y_top, off_y_bottom);
-            // Make box square.
-            faceBox facebox = get_square_box(box_expanded);
-            if (box_in_image(facebox, image)) {
-                if (bDraw) {
-                	Point pt1 = new Point(facebox.x_left, facebox.y_top);
-                	Point pt2 = new Point(facebox.x_right, facebox.y_bottom);
-                	rectangle(image, new Rect(pt1, pt2), new Scalar(0, 255, 0, 0));
-                }
-                Mat res = image.apply(new Range(facebox.y_top, facebox.y_bottom), 
-                						new Range(facebox.x_left, facebox.x_right));
-                return res;
-            }else {
-            	Mat res = getFilledSubImage(image, facebox);
-            	return res;
-            }
+		Workspace ws = acquireWorkspace();
+		try {
+			return extract_facebox_area(ws, image, threshold, bDraw);
+		} finally {
+			workspaces.release(ws);
+		}
+	}
+
+	// same as extract_facebox_area(image, threshold, bDraw) for boxes found by getFaceBoxes() or FaceTracker
+	public Mat extract_facebox_area(Mat image, List<faceBox> raw_boxes, boolean bDraw)
+	{
+		Workspace ws = acquireWorkspace();
+		try {
+			return extract_facebox_area(ws, image, raw_boxes, bDraw);
+		} finally {
+			workspaces.release(ws);
+		}
+	}
+
+	private Mat extract_facebox_area(Workspace ws, Mat image, float threshold, boolean bDraw)
+	{
+		return extract_facebox_area(ws, image, getFaceBoxes(ws, image, threshold, bDraw), bDraw);
+	}
+
+	private Mat extract_facebox_area(Workspace ws, Mat image, List<faceBox> raw_boxes, boolean bDraw)
+	{
+		// Extract face area from image of the first face.
+		if (raw_boxes.isEmpty()) return null;
+		return getFaceArea(ws, image, raw_boxes.get(0), bDraw);
+	}
+
+	// Extract the face area of every face whose confidence is over threshold.
+	// faceBoxes gets the detected boxes and faces the face image of each box in the same order,
+	// returns the number of faces
+	public int extract_facebox_areas(Mat image, float threshold, FaceBoxBuffer faceBoxes, List<Mat> faces)
+	{
+		faces.clear();
+		Workspace ws = acquireWorkspace();
+		try {
+			getFaceBoxes(ws, image, threshold, false, faceBoxes);
+			for (int i = 0; i < faceBoxes.size(); i++) {
+				faces.add(getFaceArea(ws, image, faceBoxes.get(i), false));
+			}
+		} finally {
+			workspaces.release(ws);
+		}
+		return faces.size();
+	}
+
+	// same as extract_facebox_areas(image, threshold, faceBoxes, faces) for boxes found by getFaceBoxes(),
+	// e.g. on a downscaled copy of image and mapped back to it
+	public int extract_facebox_areas(Mat image, FaceBoxBuffer faceBoxes, List<Mat> faces)
+	{
+		faces.clear();
+		Workspace ws = acquireWorkspace();
+		try {
+			for (int i = 0; i < faceBoxes.size(); i++) {
+				faces.add(getFaceArea(ws, image, faceBoxes.get(i), false));
+			}
+		} finally {
+			workspaces.release(ws);
+		}
+		return faces.size();
+	}
+
+	// square face image around the detected box, expanded to include hair and chin
+	private Mat getFaceArea(Workspace ws, Mat image, faceBox box, boolean bDraw)
+	{
+		long start = System.nanoTime();
+		try {
+			return cropFaceArea(ws, image, box, bDraw);
+		} finally {
+			Metrics.record(Metrics.Stage.CROP, System.nanoTime() - start);
 		}
-        return null;
+	}
+
+	private Mat cropFaceArea(Workspace ws, Mat image, faceBox box, boolean bDraw)
+	{
+		int height = box.y_bottom - box.y_top;
+        int off_x_left = (int) Math.abs(height * 0.45f);
+        int off_x_right = (int) Math.abs(height * 0.45f);
+        int off_y_top = (int) Math.abs(height * 0.3f);
+        int off_y_bottom = (int) Math.abs(height * 0.6f);
+        faceBox box_expanded = expand_box(box, off_x_left, off_x_right, off_y_top, off_y_bottom);
+        // Make box square.
+        faceBox facebox = get_square_box(box_expanded);
+        if (box_in_image(facebox, image)) {
+            if (bDraw) {
+            	drawBox(ws, image, facebox, GREEN);
+            }
+            // the face image is a view into image, only its header is allocated
+            ws.rect.x(facebox.x_left).y(facebox.y_top)
+            		.width(facebox.x_right - facebox.x_left).height(facebox.y_bottom - facebox.y_top);
+            Mat res = new Mat(image, ws.rect);
+            return res;
+        }else {
+        	Mat res = getFilledSubImage(image, facebox);
+        	return res;
+        }
 	}
 	// truncated sub image (face image) which is filled with zero at margin
 	public Mat getFilledSubImage(Mat image, faceBox facebox) 
@@ -270,15 +580,44 @@ public class FaceDetector {
         int colEnd = facebox.x_right > cols ? box_width - (facebox.x_right - cols) : box_width;
         int rowStart = facebox.y_top < 0 ? -facebox.y_top : 0;
         int rowEnd = facebox.y_bottom > rows ? box_height - (facebox.y_bottom - rows) : box_height;
-        truncated.copyTo(res.apply(new Range(rowStart, rowEnd), new Range(colStart, colEnd)));
+        Mat roi = res.apply(new Range(rowStart, rowEnd), new Range(colStart, colEnd));
+        truncated.copyTo(roi);
+        // free the temporary headers now instead of waiting for GC
+        roi.close();
+        truncated.close();
 //        imwrite("d:/face_image.png", res);
         return res;
 	}
 	
 	public faceBox extract_facebox(Mat image, float threshold, boolean bDraw)
+	{
+		Workspace ws = acquireWorkspace();
+		try {
+			return extract_facebox(ws, image, threshold, bDraw);
+		} finally {
+			workspaces.release(ws);
+		}
+	}
+
+	// same as extract_facebox(image, threshold, bDraw) for boxes found by getFaceBoxes() or FaceTracker
+	public faceBox extract_facebox(Mat image, List<faceBox> raw_boxes, boolean bDraw)
+	{
+		Workspace ws = acquireWorkspace();
+		try {
+			return extract_facebox(ws, image, raw_boxes, bDraw);
+		} finally {
+			workspaces.release(ws);
+		}
+	}
+
+	private faceBox extract_facebox(Workspace ws, Mat image, float threshold, boolean bDraw)
+	{
+		return extract_facebox(ws, image, getFaceBoxes(ws, image, threshold, false), bDraw);
+	}
+
+	private faceBox extract_facebox(Workspace ws, Mat image, List<faceBox> raw_boxes, boolean bDraw)
 	{
 		// Extract face area from image.
-		ArrayList<faceBox> raw_boxes = getFaceBoxes(image, threshold, false);
 		for (int i=0; i< raw_boxes.size(); i++ ) {
 			// Move box down.
 			faceBox box = raw_boxes.get(i);
@@ -289,9 +628,7 @@ public class FaceDetector {
             if (box_in_image(facebox, image)) {
                 if (bDraw)
                 {
-                	Point pt1 = new Point(facebox.x_left, facebox.y_top);
-                	Point pt2 = new Point(facebox.x_right, facebox.y_bottom);
-                	rectangle(image, new Rect(pt1, pt2), new Scalar(0, 255, 0, 0));
+                	drawBox(ws, image, facebox, GREEN);
                 }
                 return facebox;
             }
@@ -0,0 +1,209 @@
+package LivenessDetect;
+
+import static org.bytedeco.opencv.global.opencv_core.minMaxLoc;
+import static org.bytedeco.opencv.global.opencv_imgproc.COLOR_BGR2GRAY;
+import static org.bytedeco.opencv.global.opencv_imgproc.TM_CCOEFF_NORMED;
+import static org.bytedeco.opencv.global.opencv_imgproc.cvtColor;
+import static org.bytedeco.opencv.global.opencv_imgproc.matchTemplate;
+import static org.bytedeco.opencv.global.opencv_imgproc.rectangle;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.bytedeco.javacpp.DoublePointer;
+import org.bytedeco.javacv.FrameGrabber;
+import org.bytedeco.opencv.opencv_core.Mat;
+import org.bytedeco.opencv.opencv_core.Point;
+import org.bytedeco.opencv.opencv_core.Rect;
+import org.bytedeco.opencv.opencv_core.Scalar;
+
+// Detect-then-track front end of FaceDetector for video streams.
+// The SSD runs every detectInterval frames, in between the boxes of the last detection are
+// followed by template matching around their previous position. The SSD runs again at once
+// when a match score drops under minScore or the frame size changes.
+// One tracker follows one stream, it is not thread safe.
+public class FaceTracker implements AutoCloseable {
+	// template match score under this value means the face is lost
+	public static final float DEFAULT_MIN_SCORE = 0.6f;
+	private static final Scalar BLUE = new Scalar(255, 0, 0, 0);
+	private final FaceDetector faceDetector;
+	private final int detectInterval;
+	private final float minScore;
+	private int framesSinceDetect = 0;
+	private int frameCols = -1;
+	private int frameRows = -1;
+	private final List<Track> tracks = new ArrayList<Track>();
+	private int trackCount = 0;
+	private final Mat gray = new Mat();
+	private final Mat result = new Mat();
+	private final Mat noMask = new Mat();
+	private final Rect rect = new Rect();
+	private final DoublePointer minVal = new DoublePointer(1);
+	private final DoublePointer maxVal = new DoublePointer(1);
+	private final Point minLoc = new Point();
+	private final Point maxLoc = new Point();
+
+	private static final class Track {
+		int x_left, y_top, x_right, y_bottom;
+		// template is the part of the box inside the frame, at (offX, offY) from the box corner
+		// tracks are added during a frame, the template outlives the frame's PointerScope
+		final Mat template = NativeMemory.keep(new Mat());
+		int offX, offY;
+	}
+
+	public FaceTracker(FaceDetector faceDetector, int detectInterval)
+	{
+		this(faceDetector, detectInterval, DEFAULT_MIN_SCORE);
+	}
+
+	public FaceTracker(FaceDetector faceDetector, int detectInterval, float minScore)
+	{
+		if (detectInterval < 1) {
+			throw new IllegalArgumentException("detect interval must be positive, " + detectInterval);
+		}
+		this.faceDetector = faceDetector;
+		this.detectInterval = detectInterval;
+		this.minScore = minScore;
+	}
+
+	// forget the tracked faces, next frame runs the SSD
+	public void reset()
+	{
+		trackCount = 0;
+		framesSinceDetect = 0;
+	}
+
+	// drop-in for FaceDetector.getFaceBoxes() on consecutive frames of one stream
+	public ArrayList<faceBox> getFaceBoxes(Mat image, float threshold, boolean bDraw)
+	{
+		if (image.cols() != frameCols || image.rows() != frameRows) {
+			frameCols = image.cols();
+			frameRows = image.rows();
+			reset();
+		}
+		if (detectInterval > 1) {
+			// gray copy is taken before any box is drawn on image
+			if (image.channels() == 1) {
+				image.copyTo(gray);
+			} else {
+				cvtColor(image, gray, COLOR_BGR2GRAY);
+			}
+			if (trackCount > 0 && framesSinceDetect < detectInterval && track()) {
+				framesSinceDetect++;
+				ArrayList<faceBox> boxes = new ArrayList<faceBox>(trackCount);
+				for (int i = 0; i < trackCount; i++) {
+					Track t = tracks.get(i);
+					faceBox box = new faceBox(t.x_left, t.y_top, t.x_right, t.y_bottom);
+					if (bDraw) {
+						rect.x(box.x_left).y(box.y_top).width(box.x_right - box.x_left).height(box.y_bottom - box.y_top);
+						rectangle(image, rect, BLUE);
+					}
+					boxes.add(box);
+				}
+				return boxes;
+			}
+		}
+		ArrayList<faceBox> boxes = faceDetector.getFaceBoxes(image, threshold, bDraw);
+		if (detectInterval > 1) {
+			startTracks(boxes);
+		}
+		framesSinceDetect = 1;
+		return boxes;
+	}
+
+	public faceBox extract_facebox(Mat image, float threshold, boolean bDraw)
+	{
+		return faceDetector.extract_facebox(image, getFaceBoxes(image, threshold, false), bDraw);
+	}
+
+	public Mat extract_facebox_area(Mat image, float threshold, boolean bDraw)
+	{
+		return faceDetector.extract_facebox_area(image, getFaceBoxes(image, threshold, bDraw), bDraw);
+	}
+
+	// face area of the full resolution frame, searched for on the frame at timestamp decoded by scaler.
+	// The face is a view into the full resolution frame of scaler, valid until its next one
+	public Mat extract_facebox_area(Mat frame, long timestamp, DetectionScaler scaler, float threshold) throws FrameGrabber.Exception
+	{
+		ArrayList<faceBox> boxes = getFaceBoxes(frame, threshold, false);
+		if (boxes.isEmpty()) return null;
+		return faceDetector.extract_facebox_area(scaler.fullResolutionFrame(frame, timestamp), scaler.toFullResolution(boxes), false);
+	}
+
+	private void startTracks(List<faceBox> boxes)
+	{
+		trackCount = 0;
+		for (faceBox box : boxes) {
+			if (!clip(box.x_left, box.y_top, box.x_right, box.y_bottom)) continue;
+			if (tracks.size() <= trackCount) {
+				tracks.add(new Track());
+			}
+			Track t = tracks.get(trackCount);
+			t.x_left = box.x_left;
+			t.y_top = box.y_top;
+			t.x_right = box.x_right;
+			t.y_bottom = box.y_bottom;
+			t.offX = rect.x() - box.x_left;
+			t.offY = rect.y() - box.y_top;
+			try (Mat roi = new Mat(gray, rect)) {
+				roi.copyTo(t.template);
+			}
+			trackCount++;
+		}
+	}
+
+	// move every track to its best match in a window around the old box, false if a face is lost
+	private boolean track()
+	{
+		for (int i = 0; i < trackCount; i++) {
+			Track t = tracks.get(i);
+			int width = t.x_right - t.x_left;
+			int height = t.y_bottom - t.y_top;
+			int margin = Math.max(width, height) / 2;
+			if (!clip(t.x_left - margin, t.y_top - margin, t.x_right + margin, t.y_bottom + margin)) return false;
+			if (rect.width() < t.template.cols() || rect.height() < t.template.rows()) return false;
+			int searchX = rect.x();
+			int searchY = rect.y();
+			try (Mat search = new Mat(gray, rect)) {
+				matchTemplate(search, t.template, result, TM_CCOEFF_NORMED);
+			}
+			minMaxLoc(result, minVal, maxVal, minLoc, maxLoc, noMask);
+			if (maxVal.get() < minScore) return false;
+			t.x_left = searchX + maxLoc.x() - t.offX;
+			t.y_top = searchY + maxLoc.y() - t.offY;
+			t.x_right = t.x_left + width;
+			t.y_bottom = t.y_top + height;
+		}
+		return true;
+	}
+
+	// set rect to the part of the box inside the frame, false if nothing is left
+	private boolean clip(int left, int top, int right, int bottom)
+	{
+		int x0 = Math.max(left, 0);
+		int y0 = Math.max(top, 0);
+		int x1 = Math.min(right, frameCols);
+		int y1 = Math.min(bottom, frameRows);
+		if (x1 - x0 < 2 || y1 - y0 < 2) return false;
+		rect.x(x0).y(y0).width(x1 - x0).height(y1 - y0);
+		return true;
+	}
+
+	@Override
+	public void close()
+	{
+		for (Track t : tracks) {
+			t.template.close();
+		}
+		tracks.clear();
+		trackCount = 0;
+		gray.close();
+		result.close();
+		noMask.close();
+		rect.close();
+		minVal.close();
+		maxVal.close();
+		minLoc.close();
+		maxLoc.close();
+	}
+}
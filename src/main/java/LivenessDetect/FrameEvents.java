@@ -0,0 +1,226 @@
+package LivenessDetect;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.text.ParseException;
+import java.time.Duration;
+
+import jdk.jfr.Category;
+import jdk.jfr.Configuration;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Period;
+import jdk.jfr.Recording;
+import jdk.jfr.StackTrace;
+import org.bytedeco.javacpp.Pointer;
+
+// JDK Flight Recorder events of the frame hot path, to line up frame grabs, face detection and
+// liveness inference with the GC, safepoint and thread events of the same recording.
+// All of them are disabled by default: a disabled event is not committed, the native byte counters
+// are not read and the JIT removes the event object, so the loops pay next to nothing.
+// Enable them with startRecording() (the --jfr option) or a .jfc file naming LivenessDetect.*.
+// nativeBytes is Pointer.totalBytes(), the memory held by JavaCPP deallocators, and
+// nativeBytesDelta its change over the event: steps down show deallocator activity.
+public final class FrameEvents {
+	// frames grabbed by the calling thread, the frame index of its following events
+	private static final ThreadLocal<long[]> frameIndex = ThreadLocal.withInitial(() -> new long[] {-1});
+
+	private FrameEvents() {}
+
+	@Name("LivenessDetect.FrameGrab")
+	@Label("Frame Grab")
+	@Category({"LivenessDetect"})
+	@Description("Grab and decode of one video frame")
+	@Enabled(false)
+	@StackTrace(false)
+	public static class Grab extends Event {
+		@Label("Frame Index")
+		long frameIndex;
+		@Label("Width")
+		int width;
+		@Label("Height")
+		int height;
+		@Label("Native Bytes")
+		@DataAmount
+		long nativeBytes;
+		@Label("Native Bytes Delta")
+		@DataAmount
+		long nativeBytesDelta;
+	}
+
+	@Name("LivenessDetect.FaceDetection")
+	@Label("Face Detection")
+	@Category({"LivenessDetect"})
+	@Description("SSD face detection of one frame or one batch of frames")
+	@Enabled(false)
+	@StackTrace(false)
+	public static class Detection extends Event {
+		@Label("Frame Index")
+		long frameIndex;
+		@Label("Frames")
+		int frames;
+		@Label("Face Count")
+		int faceCount;
+		@Label("Native Bytes")
+		@DataAmount
+		long nativeBytes;
+		@Label("Native Bytes Delta")
+		@DataAmount
+		long nativeBytesDelta;
+	}
+
+	@Name("LivenessDetect.LivenessInference")
+	@Label("Liveness Inference")
+	@Category({"LivenessDetect"})
+	@Description("Liveness model inference of one face image or one batch of face images")
+	@Enabled(false)
+	@StackTrace(false)
+	public static class Inference extends Event {
+		@Label("Frame Index")
+		long frameIndex;
+		@Label("Face Count")
+		int faceCount;
+		@Label("Fake Score")
+		@Description("Fake score of the face, the highest one of a batch")
+		float score;
+		@Label("Native Bytes")
+		@DataAmount
+		long nativeBytes;
+		@Label("Native Bytes Delta")
+		@DataAmount
+		long nativeBytesDelta;
+	}
+
+	@Name("LivenessDetect.NativeMemory")
+	@Label("Native Memory")
+	@Category({"LivenessDetect"})
+	@Description("Memory held by JavaCPP")
+	@Enabled(false)
+	@StackTrace(false)
+	@Period("1 s")
+	public static class NativeMemory extends Event {
+		@Label("Native Bytes")
+		@DataAmount
+		long nativeBytes;
+		@Label("Physical Bytes")
+		@DataAmount
+		long physicalBytes;
+	}
+
+	static {
+		FlightRecorder.addPeriodicEvent(NativeMemory.class, () -> {
+			NativeMemory event = new NativeMemory();
+			event.nativeBytes = Pointer.totalBytes();
+			event.physicalBytes = Pointer.physicalBytes();
+			event.commit();
+		});
+	}
+
+	// the next frame of the calling thread is grabbed
+	public static Grab beginGrab()
+	{
+		frameIndex.get()[0]++;
+		Grab event = new Grab();
+		if (event.isEnabled()) {
+			event.nativeBytes = Pointer.totalBytes();
+			event.begin();
+		}
+		return event;
+	}
+
+	// the frame of beginGrab() is there, width and height 0 if the grab failed
+	public static void endGrab(Grab event, int width, int height)
+	{
+		if (!event.isEnabled()) return;
+		event.end();
+		if (event.shouldCommit()) {
+			event.frameIndex = frameIndex.get()[0];
+			event.width = width;
+			event.height = height;
+			long bytes = Pointer.totalBytes();
+			event.nativeBytesDelta = bytes - event.nativeBytes;
+			event.nativeBytes = bytes;
+			event.commit();
+		}
+	}
+
+	// frame index of the following events of the calling thread, for threads that work on
+	// frames grabbed elsewhere
+	public static void setFrameIndex(long index)
+	{
+		frameIndex.get()[0] = index;
+	}
+
+	public static Detection beginDetection()
+	{
+		Detection event = new Detection();
+		if (event.isEnabled()) {
+			event.nativeBytes = Pointer.totalBytes();
+			event.begin();
+		}
+		return event;
+	}
+
+	public static void endDetection(Detection event, int frames, int faceCount)
+	{
+		if (!event.isEnabled()) return;
+		event.end();
+		if (event.shouldCommit()) {
+			event.frameIndex = frameIndex.get()[0];
+			event.frames = frames;
+			event.faceCount = faceCount;
+			long bytes = Pointer.totalBytes();
+			event.nativeBytesDelta = bytes - event.nativeBytes;
+			event.nativeBytes = bytes;
+			event.commit();
+		}
+	}
+
+	public static Inference beginInference()
+	{
+		Inference event = new Inference();
+		if (event.isEnabled()) {
+			event.nativeBytes = Pointer.totalBytes();
+			event.begin();
+		}
+		return event;
+	}
+
+	// score is NaN if the inference failed
+	public static void endInference(Inference event, int faceCount, float score)
+	{
+		if (!event.isEnabled()) return;
+		event.end();
+		if (event.shouldCommit()) {
+			event.frameIndex = frameIndex.get()[0];
+			event.faceCount = faceCount;
+			event.score = score;
+			long bytes = Pointer.totalBytes();
+			event.nativeBytesDelta = bytes - event.nativeBytes;
+			event.nativeBytes = bytes;
+			event.commit();
+		}
+	}
+
+	// Start a recording with the JDK "profile" settings (GC, allocation, threads, ...) and the
+	// events above, written to file when the JVM exits
+	public static Recording startRecording(Path file) throws IOException, ParseException
+	{
+		Recording recording = new Recording(Configuration.getConfiguration("profile"));
+		recording.setName("LivenessDetect");
+		recording.enable(Grab.class);
+		recording.enable(Detection.class);
+		recording.enable(Inference.class);
+		recording.enable(NativeMemory.class).withPeriod(Duration.ofSeconds(1));
+		recording.setDestination(file);
+		recording.setToDisk(true);
+		recording.setDumpOnExit(true);
+		recording.start();
+		return recording;
+	}
+}
@@ -0,0 +1,90 @@
+package LivenessDetect;
+
+import java.util.concurrent.TimeUnit;
+
+// Paces a video loop instead of a fixed sleep after every frame.
+//   FAST:        no waiting, for scoring files offline
+//   SOURCE_RATE: frames are released at the rate they were recorded, from their timestamps
+//                or the frame rate of the source, for replaying a file on screen
+// A live camera paces itself, it is read through LatestFrameGrabber instead.
+// Deadlines are absolute, so the time spent processing a frame shortens the wait for the next one.
+public class FramePacer {
+	public enum Mode { FAST, SOURCE_RATE }
+
+	// when replay falls further behind than this, catch up by restarting the clock instead of racing
+	private static final long MAX_LAG_NANOS = TimeUnit.MILLISECONDS.toNanos(250);
+	private final Mode mode;
+	private final long periodNanos;
+	private long startNanos = -1;
+	private long firstTimestamp = -1;
+	private long lastTimestamp = -1;
+	private long lastDue = 0;
+
+	// frameRate of the source, used when frames have no timestamp, 30 if unknown
+	public FramePacer(Mode mode, double frameRate)
+	{
+		this.mode = mode;
+		if (!(frameRate > 0) || Double.isInfinite(frameRate)) {
+			frameRate = 30;
+		}
+		this.periodNanos = (long) (TimeUnit.SECONDS.toNanos(1) / frameRate);
+	}
+
+	// "fast" or "source"
+	public static Mode parseMode(String name)
+	{
+		switch (name) {
+		case "fast":
+			return Mode.FAST;
+		case "source":
+			return Mode.SOURCE_RATE;
+		default:
+			throw new IllegalArgumentException("unknown pace mode, " + name);
+		}
+	}
+
+	public Mode getMode()
+	{
+		return mode;
+	}
+
+	// start a new stream, the next frame is released at once
+	public void reset()
+	{
+		startNanos = -1;
+		firstTimestamp = -1;
+		lastTimestamp = -1;
+	}
+
+	// Wait until the frame is due, call it when the frame was grabbed.
+	// timestampUs is the frame's position in the stream in microseconds, negative if unknown
+	public void pace(long timestampUs) throws InterruptedException
+	{
+		if (mode != Mode.SOURCE_RATE) return;
+		long now = System.nanoTime();
+		if (startNanos < 0) {
+			startNanos = now;
+			firstTimestamp = timestampUs;
+			lastTimestamp = timestampUs;
+			lastDue = now;
+			return;
+		}
+		long due;
+		if (timestampUs >= 0 && firstTimestamp >= 0 && timestampUs > lastTimestamp) {
+			due = startNanos + TimeUnit.MICROSECONDS.toNanos(timestampUs - firstTimestamp);
+		} else {
+			// no usable timestamp, one frame period after the previous frame
+			due = lastDue + periodNanos;
+		}
+		if (now - due > MAX_LAG_NANOS) {
+			startNanos += now - due;
+			due = now;
+		}
+		lastTimestamp = timestampUs;
+		lastDue = due;
+		long wait = due - now;
+		if (wait > 0) {
+			TimeUnit.NANOSECONDS.sleep(wait);
+		}
+	}
+}
@@ -0,0 +1,439 @@
+package LivenessDetect;
+
+import ai.djl.modality.cv.Image;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.bytedeco.javacv.Frame;
+import org.bytedeco.javacv.FrameGrabber;
+import org.bytedeco.opencv.opencv_core.Mat;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+// Pipelined liveness detection of a video stream: decode -> detect -> infer -> emit.
+// Every stage runs on its own thread(s) and the stages are joined by bounded queues,
+// a full queue blocks the stage in front of it, so decoding can't run away from inference.
+// Frames finished out of order wait in the reorder buffer of the emit stage, which keeps taking them off
+// its queue; the number of frames between decode and emit is bounded by a window instead, so a frame
+// stuck in a stage stops decoding once the window is used up.
+// Frame N+1 is decoded and searched for faces while frame N is in the liveness model,
+// and the frame rate approaches the one of the slowest stage.
+// Preprocessing is part of the infer stage, it runs in LivenessTranslator on the predictor's thread.
+// Results are emitted in frame order on the thread calling run().
+public class FramePipeline {
+	private static final Logger logger = LoggerFactory.getLogger(FramePipeline.class);
+	public static final int DEFAULT_QUEUE_SIZE = 4;
+	// how often the emit stage looks for a failed worker while waiting for a frame
+	private static final long POLL_MS = 100;
+	private static final FrameResult END = new FrameResult(-1, null, null);
+	private final FaceDetector faceDetector;
+	private final LivenessDetector livenessDetector;
+	private final int detectThreads;
+	private final int inferThreads;
+	private final int queueSize;
+	private final int trackInterval;
+	private float faceThreshold = 0.89f;
+	// largest number of faces sent to the liveness model in one batch
+	private int maxBatchSize = 4;
+	private volatile boolean mRunning = false;
+	private volatile Throwable failure = null;
+	// frames decoded and not emitted yet, acquired by decode and released by emit
+	private Semaphore window = null;
+	// buffers of the decoded frames, reused once the listener is done with a frame
+	private final FramePool framePool;
+
+	// one frame on its way through the pipeline
+	public static final class FrameResult {
+		public final long index;
+		// decoded frame, owned by the pipeline and released after the listener returns
+		public final Mat frame;
+		private final FramePool pool;
+		// of the frame in the video, to fetch its full resolution frame
+		long timestamp = 0;
+		Mat face = null;
+		faceBox box = null;
+		float fakeScore = Float.NaN;
+
+		FrameResult(long index, Mat frame, FramePool pool) {
+			this.index = index;
+			this.frame = frame;
+			this.pool = pool;
+		}
+
+		public boolean hasFace()
+		{
+			return box != null;
+		}
+
+		// first face found in frame in full resolution coordinates of the video, null if there is none
+		public faceBox getFaceBox()
+		{
+			return box;
+		}
+
+		// face area fed to the liveness model, null if there is no face
+		public Mat getFaceImage()
+		{
+			return face;
+		}
+
+		// NaN if there is no face
+		public float getFakeScore()
+		{
+			return fakeScore;
+		}
+
+		public boolean isLive()
+		{
+			return hasFace() && fakeScore < LivenessDetector.FAKE_THRESHOLD;
+		}
+
+		void release()
+		{
+			if (face != null) face.close();
+			if (frame != null) pool.release(frame);
+		}
+	}
+
+	public interface Listener {
+		// called for every frame in order, return false to stop the pipeline.
+		// result.frame is released when this returns, copy it to keep it
+		boolean onFrame(FrameResult result) throws IOException;
+	}
+
+	public FramePipeline(FaceDetector faceDetector, LivenessDetector livenessDetector)
+	{
+		this(faceDetector, livenessDetector, 1, 1, DEFAULT_QUEUE_SIZE, 1);
+	}
+
+	// detectThreads and inferThreads only help up to the pool size of the detectors.
+	// Faces are tracked between detections (trackInterval > 1) only with one detect thread,
+	// since a tracker has to see the frames in order
+	public FramePipeline(FaceDetector faceDetector, LivenessDetector livenessDetector,
+			int detectThreads, int inferThreads, int queueSize, int trackInterval)
+	{
+		if (detectThreads < 1 || inferThreads < 1) {
+			throw new IllegalArgumentException("stage thread count must be positive, " + detectThreads + ", " + inferThreads);
+		}
+		if (queueSize < 1) {
+			throw new IllegalArgumentException("queue size must be positive, " + queueSize);
+		}
+		if (trackInterval < 1) {
+			throw new IllegalArgumentException("track interval must be positive, " + trackInterval);
+		}
+		this.faceDetector = faceDetector;
+		this.livenessDetector = livenessDetector;
+		this.detectThreads = detectThreads;
+		this.inferThreads = inferThreads;
+		this.queueSize = queueSize;
+		this.trackInterval = detectThreads == 1 ? trackInterval : 1;
+		// every queue full, one frame in every stage thread and the one being emitted
+		this.framePool = new FramePool(3 * queueSize + 1 + detectThreads + inferThreads + 1);
+	}
+
+	public void setFaceThreshold(float faceThreshold)
+	{
+		this.faceThreshold = faceThreshold;
+	}
+
+	public void setMaxBatchSize(int maxBatchSize)
+	{
+		if (maxBatchSize < 1) {
+			throw new IllegalArgumentException("maxBatchSize must be positive, " + maxBatchSize);
+		}
+		this.maxBatchSize = maxBatchSize;
+	}
+
+	// Run the started grabber to the end of the stream or until the listener returns false.
+	// Returns the number of frames passed to the listener.
+	public long run(FrameGrabber grabber, Listener listener) throws IOException
+	{
+		return run(new FrameSampler(grabber), listener);
+	}
+
+	// same as run(FrameGrabber, Listener) with the frames chosen by sampler
+	public long run(FrameSampler sampler, Listener listener) throws IOException
+	{
+		return run(sampler, null, listener);
+	}
+
+	// Same as run(FrameSampler, Listener) for a video decoded by scaler, see DetectionScaler.start().
+	// Faces are searched on the decoded frames and cut from the full resolution frames of scaler
+	public long run(FrameSampler sampler, DetectionScaler scaler, Listener listener) throws IOException
+	{
+		BlockingQueue<FrameResult> decoded = new ArrayBlockingQueue<FrameResult>(queueSize);
+		BlockingQueue<FrameResult> detected = new ArrayBlockingQueue<FrameResult>(queueSize);
+		BlockingQueue<FrameResult> inferred = new ArrayBlockingQueue<FrameResult>(queueSize);
+		failure = null;
+		// a frame in every queue slot and stage thread, the reorder buffer holds at most window - 1 frames
+		window = new Semaphore(queueSize + detectThreads + inferThreads);
+		mRunning = true;
+		List<Thread> threads = new ArrayList<Thread>();
+		threads.add(newThread("pipeline-decode", () -> decode(sampler, decoded)));
+		AtomicInteger detectLeft = new AtomicInteger(detectThreads);
+		for (int i = 0; i < detectThreads; i++) {
+			threads.add(newThread("pipeline-detect-" + i, () -> detect(decoded, detected, detectLeft, scaler)));
+		}
+		AtomicInteger inferLeft = new AtomicInteger(inferThreads);
+		for (int i = 0; i < inferThreads; i++) {
+			threads.add(newThread("pipeline-infer-" + i, () -> infer(detected, inferred, inferLeft)));
+		}
+		for (Thread t : threads) {
+			t.start();
+		}
+		try {
+			return emit(inferred, listener);
+		} finally {
+			stop();
+			for (Thread t : threads) {
+				t.interrupt();
+			}
+			for (Thread t : threads) {
+				joinQuietly(t);
+			}
+			releaseAll(decoded);
+			releaseAll(detected);
+			releaseAll(inferred);
+		}
+	}
+
+	// stop a running pipeline, run() returns after the frame in the listener
+	public void stop()
+	{
+		mRunning = false;
+	}
+
+	private long emit(BlockingQueue<FrameResult> in, Listener listener) throws IOException
+	{
+		// parallel stages finish frames out of order, hold them back until it's their turn
+		Map<Long, FrameResult> pending = new HashMap<Long, FrameResult>();
+		long next = 0;
+		boolean ended = false;
+		try {
+			while (mRunning) {
+				FrameResult r = pending.remove(next);
+				if (r == null) {
+					if (ended) break;
+					r = in.poll(POLL_MS, TimeUnit.MILLISECONDS);
+					if (r == null) {
+						checkFailure();
+						continue;
+					}
+					if (r == END) {
+						ended = true;
+						continue;
+					}
+					if (r.index != next) {
+						pending.put(r.index, r);
+						continue;
+					}
+				}
+				next++;
+				try {
+					if (!listener.onFrame(r)) break;
+				} finally {
+					r.release();
+					window.release();
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			for (FrameResult r : pending.values()) {
+				r.release();
+			}
+		}
+		checkFailure();
+		return next;
+	}
+
+	private void decode(FrameSampler sampler, BlockingQueue<FrameResult> out)
+	{
+		long index = 0;
+		FrameResult r = null;
+		try {
+			while (mRunning) {
+				// waits while the window is full, e.g. for a late frame the emit stage holds the later ones for
+				window.acquire();
+				long start = System.nanoTime();
+				FrameEvents.Grab event = FrameEvents.beginGrab();
+				Frame frame = sampler.next();
+				FrameEvents.endGrab(event, frame != null ? frame.imageWidth : 0, frame != null ? frame.imageHeight : 0);
+				if (frame == null) break;
+				Mat mat = frame.image != null ? ImageConverter.toMat(frame) : null;
+				if (mat == null) {
+					window.release();
+					continue;
+				}
+				// the grabber reuses its frame buffer, give the next stages their own copy
+				r = new FrameResult(index++, framePool.copyOf(mat), framePool);
+				r.timestamp = frame.timestamp;
+				Metrics.record(Metrics.Stage.DECODE, System.nanoTime() - start);
+				out.put(r);
+				r = null;
+			}
+			out.put(END);
+		} catch (InterruptedException e) {
+			// stopped
+		} catch (Throwable e) {
+			fail(e);
+		} finally {
+			if (r != null) r.release();
+		}
+	}
+
+	private void detect(BlockingQueue<FrameResult> in, BlockingQueue<FrameResult> out, AtomicInteger left,
+			DetectionScaler scaler)
+	{
+		FrameResult r = null;
+		try (FaceTracker tracker = new FaceTracker(faceDetector, trackInterval)) {
+			while (mRunning) {
+				r = in.take();
+				if (r == END) {
+					r = null;
+					endStage(in, out, left);
+					return;
+				}
+				FrameEvents.setFrameIndex(r.index);
+				ArrayList<faceBox> boxes = tracker.getFaceBoxes(r.frame, faceThreshold, false);
+				if (scaler == null || !scaler.isScaled()) {
+					r.face = faceDetector.extract_facebox_area(r.frame, boxes, false);
+				} else if (!boxes.isEmpty()) {
+					// the face is cut from the full resolution frame, which the detect threads share
+					// and the next fetch overwrites: copy it while holding the scaler
+					boxes = scaler.toFullResolution(boxes);
+					synchronized (scaler) {
+						Mat face = faceDetector.extract_facebox_area(scaler.fullResolutionFrame(r.frame, r.timestamp), boxes, false);
+						r.face = face.clone();
+						face.close();
+					}
+				}
+				if (r.face != null) {
+					r.box = boxes.get(0);
+				}
+				out.put(r);
+				r = null;
+			}
+		} catch (InterruptedException e) {
+			// stopped
+		} catch (Throwable e) {
+			fail(e);
+		} finally {
+			if (r != null) r.release();
+		}
+	}
+
+	private void infer(BlockingQueue<FrameResult> in, BlockingQueue<FrameResult> out, AtomicInteger left)
+	{
+		List<FrameResult> batch = new ArrayList<FrameResult>(maxBatchSize);
+		List<Image> images = new ArrayList<Image>(maxBatchSize);
+		MatImageFactory factory = MatImageFactory.getInstance();
+		try {
+			while (mRunning) {
+				// whatever is already waiting goes into the same batch
+				batch.add(in.take());
+				in.drainTo(batch, maxBatchSize - 1);
+				boolean ended = false;
+				for (FrameResult r : batch) {
+					if (r == END) {
+						ended = true;
+					} else if (r.face != null) {
+						images.add(factory.fromImage(r.face));
+					}
+				}
+				// the events of a batch carry the index of its first frame
+				FrameEvents.setFrameIndex(batch.get(0) != END ? batch.get(0).index : -1);
+				List<Float> scores = livenessDetector.getFakeScores(images);
+				int i = 0;
+				for (FrameResult r : batch) {
+					if (r != END && r.face != null) {
+						r.fakeScore = scores.get(i++);
+					}
+				}
+				while (!batch.isEmpty()) {
+					FrameResult r = batch.get(0);
+					if (r != END) out.put(r);
+					batch.remove(0);
+				}
+				images.clear();
+				if (ended) {
+					endStage(in, out, left);
+					return;
+				}
+			}
+		} catch (InterruptedException e) {
+			// stopped
+		} catch (Throwable e) {
+			fail(e);
+		} finally {
+			// frames of a batch cut short by stop() or a failure
+			for (FrameResult r : batch) {
+				if (r != END) r.release();
+			}
+		}
+	}
+
+	// END is passed back for the other threads of the stage, the last one to see it passes it on
+	private static void endStage(BlockingQueue<FrameResult> in, BlockingQueue<FrameResult> out, AtomicInteger left)
+			throws InterruptedException
+	{
+		if (left.decrementAndGet() == 0) {
+			out.put(END);
+		} else {
+			in.put(END);
+		}
+	}
+
+	private void fail(Throwable e)
+	{
+		logger.debug(e.toString());
+		if (failure == null) {
+			failure = e;
+		}
+		stop();
+	}
+
+	private void checkFailure() throws IOException
+	{
+		Throwable e = failure;
+		if (e == null) return;
+		if (e instanceof IOException) throw (IOException) e;
+		throw new IOException("pipeline stage failed, " + e, e);
+	}
+
+	private static Thread newThread(String name, Runnable r)
+	{
+		Thread t = new Thread(r, name);
+		t.setDaemon(true);
+		return t;
+	}
+
+	private static void joinQuietly(Thread t)
+	{
+		boolean interrupted = false;
+		while (true) {
+			try {
+				t.join();
+				break;
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		if (interrupted) Thread.currentThread().interrupt();
+	}
+
+	private static void releaseAll(BlockingQueue<FrameResult> queue)
+	{
+		for (FrameResult r = queue.poll(); r != null; r = queue.poll()) {
+			if (r != END) r.release();
+		}
+	}
+}
@@ -0,0 +1,94 @@
+package LivenessDetect;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.bytedeco.opencv.opencv_core.Mat;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+// Preallocated frame buffers keyed by rows, cols and type.
+// acquire() hands out a buffer of a released frame of the same resolution when there is one, so a
+// long stream of equally sized frames allocates its buffers once instead of a Mat (and a JavaCPP
+// deallocator) per frame. Every acquired buffer goes back with release() or is closed by the caller.
+// Thread safe.
+public class FramePool implements AutoCloseable {
+	private static final Logger logger = LoggerFactory.getLogger(FramePool.class);
+	// free buffers kept per resolution, more are closed on release
+	private final int maxFree;
+	private final Map<Long, ArrayDeque<Mat>> free = new HashMap<Long, ArrayDeque<Mat>>();
+	private long allocated = 0;
+	private boolean closed = false;
+
+	public FramePool(int maxFree)
+	{
+		if (maxFree < 1) {
+			throw new IllegalArgumentException("free buffer count must be positive, " + maxFree);
+		}
+		this.maxFree = maxFree;
+	}
+
+	// rows x cols buffer of type, its content is undefined
+	public Mat acquire(int rows, int cols, int type)
+	{
+		synchronized (this) {
+			ArrayDeque<Mat> buffers = free.get(key(rows, cols, type));
+			if (buffers != null && !buffers.isEmpty()) {
+				return buffers.pop();
+			}
+			allocated++;
+		}
+		// pooled buffers outlive the PointerScope of the frame they were made in
+		return NativeMemory.keep(new Mat(rows, cols, type));
+	}
+
+	// buffer holding a copy of src
+	public Mat copyOf(Mat src)
+	{
+		Mat dst = acquire(src.rows(), src.cols(), src.type());
+		src.copyTo(dst);
+		return dst;
+	}
+
+	// give a buffer of acquire() or copyOf() back, it must not be used afterwards
+	public void release(Mat buffer)
+	{
+		if (buffer == null) return;
+		synchronized (this) {
+			if (!closed) {
+				ArrayDeque<Mat> buffers = free.computeIfAbsent(key(buffer.rows(), buffer.cols(), buffer.type()), k -> new ArrayDeque<Mat>());
+				if (buffers.size() < maxFree) {
+					buffers.push(buffer);
+					return;
+				}
+			}
+		}
+		buffer.close();
+	}
+
+	// number of buffers allocated so far, stays flat once the pool is warm
+	public synchronized long getAllocated()
+	{
+		return allocated;
+	}
+
+	private static long key(int rows, int cols, int type)
+	{
+		return ((long) rows << 40) | ((long) cols << 16) | (type & 0xffff);
+	}
+
+	// closes the free buffers, buffers released later are closed right away
+	@Override
+	public synchronized void close()
+	{
+		closed = true;
+		for (ArrayDeque<Mat> buffers : free.values()) {
+			for (Mat m : buffers) {
+				m.close();
+			}
+		}
+		free.clear();
+		logger.debug(allocated + " frame buffers were allocated");
+	}
+}
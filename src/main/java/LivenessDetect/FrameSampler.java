@@ -0,0 +1,104 @@
+package LivenessDetect;
+
+import org.bytedeco.javacv.FFmpegFrameGrabber;
+import org.bytedeco.javacv.Frame;
+import org.bytedeco.javacv.FrameGrabber;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+// Chooses which frames of a started grabber get decoded.
+//   ALL:       every video frame in order
+//   EVEN:      K frames evenly spaced over the duration, each one reached by seeking. FFmpeg seeks to
+//              the key frame before the timestamp and decodes forward to it, so only the frames from
+//              that key frame on are decoded: the saving is the GOPs skipped between the samples,
+//              nothing when the samples are closer together than the key frame interval
+//   KEYFRAMES: key frames only, nothing else is decoded
+// Scoring a long clip needs a handful of faces, not every frame, and decoding dominates its time.
+// EVEN and KEYFRAMES need an FFmpegFrameGrabber.
+public class FrameSampler {
+	private static final Logger logger = LoggerFactory.getLogger(FrameSampler.class);
+	public enum Mode { ALL, EVEN, KEYFRAMES }
+
+	private final FrameGrabber grabber;
+	private Mode mode;
+	private final int samples;
+	private long duration = 0;
+	private int index = 0;
+
+	public FrameSampler(FrameGrabber grabber)
+	{
+		this(grabber, Mode.ALL, 0);
+	}
+
+	// samples is the number of frames of EVEN mode
+	public FrameSampler(FrameGrabber grabber, Mode mode, int samples)
+	{
+		if (mode != Mode.ALL && !(grabber instanceof FFmpegFrameGrabber)) {
+			throw new IllegalArgumentException(mode + " sampling needs FFmpegFrameGrabber");
+		}
+		if (mode == Mode.EVEN && samples < 1) {
+			throw new IllegalArgumentException("sample count must be positive, " + samples);
+		}
+		this.grabber = grabber;
+		this.mode = mode;
+		this.samples = samples;
+	}
+
+	// "key" for key frames, a number K for K evenly spaced frames
+	public static FrameSampler create(FrameGrabber grabber, String option)
+	{
+		if (option == null) return new FrameSampler(grabber);
+		if (option.equals("key")) return new FrameSampler(grabber, Mode.KEYFRAMES, 0);
+		try {
+			return new FrameSampler(grabber, Mode.EVEN, Integer.parseInt(option));
+		} catch (NumberFormatException nfe) {
+			throw new IllegalArgumentException("sample must be key or a number, " + option);
+		}
+	}
+
+	public Mode getMode()
+	{
+		return mode;
+	}
+
+	// next sampled video frame, null at the end.
+	// The frame belongs to the grabber and is overwritten by the next call
+	public Frame next() throws FrameGrabber.Exception
+	{
+		switch (mode) {
+		case EVEN:
+			if (index == 0) {
+				// duration is known once the grabber is started
+				duration = grabber.getLengthInTime();
+				if (duration <= 0) {
+					logger.debug("unknown video duration, decoding every frame");
+					mode = Mode.ALL;
+					return next();
+				}
+			}
+			if (index >= samples) return null;
+			// middle of each of the samples equal parts of the video
+			long timestamp = duration * (2 * index + 1) / (2L * samples);
+			index++;
+			grabber.setTimestamp(timestamp);
+			return ((FFmpegFrameGrabber) grabber).grabImage();
+		case KEYFRAMES:
+			return ((FFmpegFrameGrabber) grabber).grabKeyFrame();
+		default:
+			return grabImage();
+		}
+	}
+
+	// video frames only, FFmpeg would decode audio as well on grab()
+	private Frame grabImage() throws FrameGrabber.Exception
+	{
+		if (grabber instanceof FFmpegFrameGrabber) {
+			return ((FFmpegFrameGrabber) grabber).grabImage();
+		}
+		Frame frame;
+		do {
+			frame = grabber.grab();
+		} while (frame != null && frame.image == null);
+		return frame;
+	}
+}
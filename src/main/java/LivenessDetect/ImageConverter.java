@@ -0,0 +1,230 @@
+package LivenessDetect;
+
+import ai.djl.modality.cv.Image;
+
+import static org.bytedeco.opencv.global.opencv_core.CV_8UC1;
+import static org.bytedeco.opencv.global.opencv_core.CV_8UC3;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBufferByte;
+import java.awt.image.Raster;
+
+import org.bytedeco.javacv.Frame;
+import org.bytedeco.javacv.Java2DFrameConverter;
+import org.bytedeco.javacv.OpenCVFrameConverter;
+import org.bytedeco.opencv.opencv_core.Mat;
+import org.opencv.core.CvType;
+
+// Conversions between JavaCV Mat, org.opencv.core.Mat, Frame, BufferedImage and DJL Image.
+// The JavaCV converters keep state and are not thread safe, every thread gets its own set of them.
+// Where the pixel layouts match the result is a view sharing the memory of its source:
+//   toMat(Frame), toMat(org.opencv.core.Mat), toOpenCvMat(Mat), toFrame(Mat), toImage(Mat), toImage(Frame)
+// A view lives as long as its source. The Mat views of frames, of org.opencv.core.Mats and of the
+// BufferedImage fallback come from three converters of the thread: a view is valid until the next
+// conversion of the thread from the same kind of source, which may hand the same object out again or
+// replace it, e.g. when the frame size changes. A view that must outlive that is copied by the caller,
+// and a thread converting the frames of two grabbers must use the first view before getting the second.
+// The copies between Mats and BufferedImage write into a destination of the caller (null for a new one):
+// when it has the right size and type nothing is allocated, otherwise a new one is made and returned.
+// 8 bit BGR and gray are copied in one pass, the other layouts go through Java2DFrameConverter.
+public final class ImageConverter {
+	private static final ThreadLocal<Converters> converters = ThreadLocal.withInitial(Converters::new);
+
+	private static final class Converters {
+		// one converter per direction, a converter caches the last object it made
+		final MatViews frameToMat = new MatViews();
+		final MatViews openCvMatToMat = new MatViews();
+		final MatViews java2dToMat = new MatViews();
+		final OpenCVFrameConverter.ToMat matToFrame = new OpenCVFrameConverter.ToMat();
+		final OpenCVFrameConverter.ToOrgOpenCvCoreMat frameToOpenCvMat = new OpenCVFrameConverter.ToOrgOpenCvCoreMat();
+		final OpenCVFrameConverter.ToOrgOpenCvCoreMat openCvMatToFrame = new OpenCVFrameConverter.ToOrgOpenCvCoreMat();
+		final Java2DFrameConverter java2d = new Java2DFrameConverter();
+	}
+
+	// Frame -> Mat converter of one kind of source, releasing a view only when it replaces it by the next one
+	private static final class MatViews {
+		private final OpenCVFrameConverter.ToMat converter = new OpenCVFrameConverter.ToMat();
+		private Mat lastMat = null;
+
+		Mat toMat(Frame frame)
+		{
+			Mat mat = converter.convert(frame);
+			// the view cached by the converter is used again for the next frames, the PointerScope of the
+			// frame it was made in must not free it; a Mat of the frame itself belongs to the caller.
+			// The view it replaces gets its extra reference back, or every new view stays pinned until the GC
+			if (mat != null && mat != lastMat && mat != frame.opaque) {
+				if (lastMat != null) lastMat.releaseReference();
+				NativeMemory.keep(mat);
+				lastMat = mat;
+			}
+			return mat;
+		}
+	}
+
+	private ImageConverter()
+	{
+	}
+
+	// view of the frame's image
+	public static Mat toMat(Frame frame)
+	{
+		return converters.get().frameToMat.toMat(frame);
+	}
+
+	// view of an org.opencv.core.Mat
+	public static Mat toMat(org.opencv.core.Mat mat)
+	{
+		Converters c = converters.get();
+		return c.openCvMatToMat.toMat(c.openCvMatToFrame.convert(mat));
+	}
+
+	// copy of bi into dst
+	public static Mat toMat(BufferedImage bi, Mat dst)
+	{
+		if (dst == null) dst = new Mat();
+		int channels = bi.getType() == BufferedImage.TYPE_3BYTE_BGR ? 3 : bi.getType() == BufferedImage.TYPE_BYTE_GRAY ? 1 : 0;
+		byte[] data = channels > 0 ? packedBytes(bi, channels) : null;
+		if (data == null) {
+			Converters c = converters.get();
+			c.java2dToMat.toMat(c.java2d.convert(bi)).copyTo(dst);
+			return dst;
+		}
+		int rows = bi.getHeight();
+		int rowBytes = bi.getWidth() * channels;
+		dst.create(rows, bi.getWidth(), channels == 3 ? CV_8UC3 : CV_8UC1);
+		if (dst.isContinuous()) {
+			dst.data().put(data, 0, rows * rowBytes);
+		} else {
+			for (int r = 0; r < rows; r++) {
+				dst.ptr(r).put(data, r * rowBytes, rowBytes);
+			}
+		}
+		return dst;
+	}
+
+	// the Mat of a MatImage, a copy into dst of a BufferedImage backed one
+	public static Mat toMat(Image image, Mat dst)
+	{
+		Object wrapped = image.getWrappedImage();
+		if (wrapped instanceof Mat) {
+			return (Mat) wrapped;
+		}
+		if (wrapped instanceof BufferedImage) {
+			return toMat((BufferedImage) wrapped, dst);
+		}
+		throw new IllegalArgumentException("Only Mat and BufferedImage backed images are supported");
+	}
+
+	// view of a JavaCV Mat
+	public static org.opencv.core.Mat toOpenCvMat(Mat mat)
+	{
+		Converters c = converters.get();
+		return c.frameToOpenCvMat.convert(c.matToFrame.convert(mat));
+	}
+
+	// copy of a TYPE_3BYTE_BGR image into dst
+	public static org.opencv.core.Mat toOpenCvMat(BufferedImage bi, org.opencv.core.Mat dst)
+	{
+		if (dst == null) dst = new org.opencv.core.Mat();
+		dst.create(bi.getHeight(), bi.getWidth(), CvType.CV_8UC3);
+		byte[] data = ((DataBufferByte) bi.getRaster().getDataBuffer()).getData();
+		dst.put(0, 0, data);
+		return dst;
+	}
+
+	// view of a Mat, e.g. for CanvasFrame.showImage()
+	public static Frame toFrame(Mat mat)
+	{
+		return converters.get().matToFrame.convert(mat);
+	}
+
+	// frame of bi, reused by the next call of the thread
+	public static Frame toFrame(BufferedImage bi)
+	{
+		return converters.get().java2d.convert(bi);
+	}
+
+	// copy of mat into dst
+	public static BufferedImage toBufferedImage(Mat mat, BufferedImage dst)
+	{
+		int type = mat.type() == CV_8UC3 ? BufferedImage.TYPE_3BYTE_BGR : mat.type() == CV_8UC1 ? BufferedImage.TYPE_BYTE_GRAY : -1;
+		if (type < 0) {
+			Converters c = converters.get();
+			return Java2DFrameConverter.cloneBufferedImage(c.java2d.convert(c.matToFrame.convert(mat)));
+		}
+		dst = destination(dst, mat.cols(), mat.rows(), type);
+		int channels = type == BufferedImage.TYPE_3BYTE_BGR ? 3 : 1;
+		byte[] data = packedBytes(dst, channels);
+		int rows = mat.rows();
+		int rowBytes = mat.cols() * channels;
+		if (mat.isContinuous()) {
+			mat.data().get(data, 0, rows * rowBytes);
+		} else {
+			for (int r = 0; r < rows; r++) {
+				mat.ptr(r).get(data, r * rowBytes, rowBytes);
+			}
+		}
+		return dst;
+	}
+
+	// copy of an 8 bit BGR org.opencv.core.Mat into dst
+	public static BufferedImage toBufferedImage(org.opencv.core.Mat mat, BufferedImage dst)
+	{
+		dst = destination(dst, mat.width(), mat.height(), BufferedImage.TYPE_3BYTE_BGR);
+		mat.get(0, 0, ((DataBufferByte) dst.getRaster().getDataBuffer()).getData());
+		return dst;
+	}
+
+	// image of the frame, reused by the next call of the thread
+	public static BufferedImage toBufferedImage(Frame frame)
+	{
+		return converters.get().java2d.convert(frame);
+	}
+
+	// view of a Mat
+	public static Image toImage(Mat mat)
+	{
+		return MatImageFactory.getInstance().fromImage(mat);
+	}
+
+	// view of the frame's image
+	public static Image toImage(Frame frame)
+	{
+		return MatImageFactory.getInstance().fromImage(toMat(frame));
+	}
+
+	// copy of bi
+	public static Image toImage(BufferedImage bi)
+	{
+		return MatImageFactory.getInstance().fromImage(bi);
+	}
+
+	private static BufferedImage destination(BufferedImage dst, int width, int height, int type)
+	{
+		if (dst != null && dst.getWidth() == width && dst.getHeight() == height && dst.getType() == type
+				&& packedBytes(dst, type == BufferedImage.TYPE_3BYTE_BGR ? 3 : 1) != null) {
+			return dst;
+		}
+		return new BufferedImage(width, height, type);
+	}
+
+	// pixel bytes of bi when they are stored row after row without padding, as a continuous Mat, else null
+	private static byte[] packedBytes(BufferedImage bi, int channels)
+	{
+		Raster raster = bi.getRaster();
+		if (!(raster.getDataBuffer() instanceof DataBufferByte) || !(raster.getSampleModel() instanceof ComponentSampleModel)) {
+			return null;
+		}
+		ComponentSampleModel sm = (ComponentSampleModel) raster.getSampleModel();
+		if (raster.getSampleModelTranslateX() != 0 || raster.getSampleModelTranslateY() != 0
+				|| sm.getPixelStride() != channels || sm.getScanlineStride() != bi.getWidth() * channels) {
+			return null;
+		}
+		DataBufferByte buffer = (DataBufferByte) raster.getDataBuffer();
+		if (buffer.getNumBanks() != 1 || buffer.getOffset() != 0) {
+			return null;
+		}
+		return buffer.getData();
+	}
+}
@@ -0,0 +1,102 @@
+package LivenessDetect;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+// Lock free latency histogram with HDR style log-linear buckets: values are kept in microseconds,
+// every power of two range is split into 16 buckets, so a percentile is known within 1/16 (6%)
+// from 1 us up to 2^40 us. Recording is a few atomic increments and no allocation, so it can
+// stay on in the frame loops; percentiles are computed from the bucket counts when read.
+public class LatencyHistogram {
+	private static final int SUB_BITS = 4;
+	private static final int SUB_COUNT = 1 << SUB_BITS;
+	private static final int MAX_EXPONENT = 40;
+	private static final int BUCKETS = (MAX_EXPONENT - SUB_BITS + 2) * SUB_COUNT;
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+	private final LongAdder count = new LongAdder();
+	private final LongAdder sumNanos = new LongAdder();
+	private final AtomicLong maxNanos = new AtomicLong();
+
+	public void record(long nanos)
+	{
+		if (nanos < 0) nanos = 0;
+		counts.incrementAndGet(bucketOf(nanos / 1000));
+		count.increment();
+		sumNanos.add(nanos);
+		long max = maxNanos.get();
+		while (nanos > max && !maxNanos.compareAndSet(max, nanos)) {
+			max = maxNanos.get();
+		}
+	}
+
+	public long getCount()
+	{
+		return count.sum();
+	}
+
+	public long getSumNanos()
+	{
+		return sumNanos.sum();
+	}
+
+	public long getMaxNanos()
+	{
+		return maxNanos.get();
+	}
+
+	public double getMeanNanos()
+	{
+		long n = count.sum();
+		return n > 0 ? (double) sumNanos.sum() / n : 0;
+	}
+
+	// value below which the fraction q (0..1) of the recorded values are, 0 if nothing was recorded.
+	// Counts are read while other threads record, so under load this is a close approximation
+	public long percentileNanos(double q)
+	{
+		long total = 0;
+		long[] snapshot = new long[BUCKETS];
+		for (int i = 0; i < BUCKETS; i++) {
+			snapshot[i] = counts.get(i);
+			total += snapshot[i];
+		}
+		if (total == 0) return 0;
+		long rank = Math.max(1, (long) Math.ceil(q * total));
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += snapshot[i];
+			if (seen >= rank) {
+				return Math.min(highestOf(i) * 1000 + 999, maxNanos.get());
+			}
+		}
+		return maxNanos.get();
+	}
+
+	public void reset()
+	{
+		for (int i = 0; i < BUCKETS; i++) {
+			counts.set(i, 0);
+		}
+		count.reset();
+		sumNanos.reset();
+		maxNanos.set(0);
+	}
+
+	private static int bucketOf(long micros)
+	{
+		if (micros < SUB_COUNT) return (int) micros;
+		int exponent = 63 - Long.numberOfLeadingZeros(micros);
+		int sub = (int) (micros >>> (exponent - SUB_BITS)) & (SUB_COUNT - 1);
+		return Math.min((exponent - SUB_BITS + 1) * SUB_COUNT + sub, BUCKETS - 1);
+	}
+
+	// largest value in microseconds that falls into the bucket
+	private static long highestOf(int bucket)
+	{
+		if (bucket < SUB_COUNT) return bucket;
+		int shift = bucket / SUB_COUNT - 1;
+		long lowest = (long) (SUB_COUNT + bucket % SUB_COUNT) << shift;
+		return lowest + (1L << shift) - 1;
+	}
+}
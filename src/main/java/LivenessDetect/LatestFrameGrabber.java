@@ -0,0 +1,158 @@
+package LivenessDetect;
+
+import java.io.IOException;
+import org.bytedeco.javacv.Frame;
+import org.bytedeco.javacv.FrameGrabber;
+import org.bytedeco.opencv.opencv_core.Mat;
+import org.bytedeco.opencv.opencv_videoio.VideoCapture;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+// Latest-frame-wins reader of a live camera.
+// A background thread reads the camera as fast as it delivers, read() returns the newest frame
+// and the frames that arrived while the caller was busy are dropped, so a slow loop shows the
+// current picture instead of falling further and further behind the camera's buffer.
+// Three Mats rotate between the grab thread and the caller, frames are never copied.
+public class LatestFrameGrabber {
+	private static final Logger logger = LoggerFactory.getLogger(LatestFrameGrabber.class);
+	// how long close() waits for a read blocked in the camera driver
+	private static final long JOIN_MS = 2000;
+
+	public interface Source {
+		// read the next frame into frame, false at the end of the stream.
+		// Most of a read is waiting for the camera's next frame, a source records its decode and
+		// convert work as the decode stage itself, without the wait
+		boolean read(Mat frame) throws Exception;
+	}
+
+	private final Source source;
+	private final Thread worker;
+	private final Object lock = new Object();
+	private Mat grabbing = new Mat();
+	private Mat latest = new Mat();
+	private Mat reading = new Mat();
+	private boolean fresh = false;
+	private boolean ended = false;
+	private Exception failure = null;
+	private long dropped = 0;
+	private volatile boolean mStop = false;
+
+	public LatestFrameGrabber(Source source)
+	{
+		this.source = source;
+		worker = new Thread(this::run, "latest-frame-grabber");
+		worker.setDaemon(true);
+		worker.start();
+	}
+
+	// reader of a started FrameGrabber, grab() waits and decodes in one call, only the copy is recorded
+	public static LatestFrameGrabber of(FrameGrabber grabber)
+	{
+		return new LatestFrameGrabber(frame -> {
+			Frame f;
+			do {
+				f = grabber.grab();
+				if (f == null) return false;
+			} while (f.image == null);
+			long start = System.nanoTime();
+			// the grabber reuses its buffer, copy the picture out
+			ImageConverter.toMat(f).copyTo(frame);
+			Metrics.record(Metrics.Stage.DECODE, System.nanoTime() - start);
+			return true;
+		});
+	}
+
+	// reader of an opened VideoCapture, grab() waits for the frame and retrieve() decodes it
+	public static LatestFrameGrabber of(VideoCapture capture)
+	{
+		return new LatestFrameGrabber(frame -> {
+			if (!capture.grab()) return false;
+			long start = System.nanoTime();
+			if (!capture.retrieve(frame)) return false;
+			Metrics.record(Metrics.Stage.DECODE, System.nanoTime() - start);
+			return true;
+		});
+	}
+
+	// Newest frame not returned before, waits for it if there is none yet.
+	// Returns null at the end of the stream. The frame is valid until the next read()
+	public Mat read() throws IOException, InterruptedException
+	{
+		synchronized (lock) {
+			while (!fresh && !ended) {
+				lock.wait();
+			}
+			if (!fresh) {
+				if (failure != null) throw new IOException("camera read failed, " + failure, failure);
+				return null;
+			}
+			Mat m = reading;
+			reading = latest;
+			latest = m;
+			fresh = false;
+			return reading;
+		}
+	}
+
+	// frames grabbed but never returned by read()
+	public long getDropped()
+	{
+		synchronized (lock) {
+			return dropped;
+		}
+	}
+
+	private void run()
+	{
+		try {
+			for (;;) {
+				if (mStop || !source.read(grabbing)) break;
+				synchronized (lock) {
+					if (fresh) {
+						dropped++;
+						Metrics.addDroppedFrames(1);
+					}
+					Mat m = latest;
+					latest = grabbing;
+					grabbing = m;
+					fresh = true;
+					lock.notifyAll();
+				}
+			}
+		} catch (Exception e) {
+			logger.debug(e.toString());
+			synchronized (lock) {
+				failure = e;
+			}
+		}
+		synchronized (lock) {
+			ended = true;
+			lock.notifyAll();
+		}
+	}
+
+	// Stop the grab thread, the source itself is not closed.
+	// Returns false when the thread is still blocked in the source's read after JOIN_MS, the source
+	// must then be left open: closing it under the read crashes in native code
+	public boolean close()
+	{
+		mStop = true;
+		try {
+			worker.join(JOIN_MS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		if (worker.isAlive()) {
+			// still blocked in the driver, leave the buffers to it
+			logger.info("camera read did not return in " + JOIN_MS + " ms, the camera is left open");
+			return false;
+		}
+		synchronized (lock) {
+			ended = true;
+			grabbing.close();
+			latest.close();
+			reading.close();
+		}
+		return true;
+	}
+}
@@ -0,0 +1,135 @@
+package LivenessDetect;
+
+import ai.djl.modality.cv.Image;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+// Micro-batching front end of LivenessDetector.
+// Face images submitted by concurrent callers are gathered into one batchPredict call,
+// a batch is sent as soon as it has maxBatchSize images or the first image waited maxWaitMs.
+public class LivenessBatcher implements AutoCloseable {
+	private static final Logger logger = LoggerFactory.getLogger(LivenessBatcher.class);
+	private final LivenessDetector livenessDetector;
+	private final int maxBatchSize;
+	private final long maxWaitMs;
+	private final BlockingQueue<Request> queue = new LinkedBlockingQueue<Request>();
+	private final Thread worker;
+	private volatile boolean mStop = false;
+
+	private static class Request {
+		final Image image;
+		final CompletableFuture<Float> score = new CompletableFuture<Float>();
+
+		Request(Image image) {
+			this.image = image;
+		}
+	}
+
+	public LivenessBatcher(LivenessDetector livenessDetector, int maxBatchSize, long maxWaitMs)
+	{
+		if (maxBatchSize < 1) {
+			throw new IllegalArgumentException("maxBatchSize must be positive, " + maxBatchSize);
+		}
+		this.livenessDetector = livenessDetector;
+		this.maxBatchSize = maxBatchSize;
+		this.maxWaitMs = maxWaitMs;
+		worker = new Thread(this::run, "liveness-batcher");
+		worker.setDaemon(true);
+		worker.start();
+	}
+
+	// queue the face image, the future completes with its fake score
+	public CompletableFuture<Float> submit(Image img)
+	{
+		Request req = new Request(img);
+		if (mStop) {
+			req.score.completeExceptionally(new IllegalStateException("liveness batcher is closed"));
+			return req.score;
+		}
+		queue.add(req);
+		return req.score;
+	}
+
+	// blocking version of submit() with the same result as LivenessDetector.detectLiveness()
+	public boolean detectLiveness(Image img)
+	{
+		try {
+			float res = submit(img).get();
+			return res < LivenessDetector.FAKE_THRESHOLD;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		} catch (ExecutionException e) {
+			e.printStackTrace();
+			return false;
+		}
+	}
+
+	private void run()
+	{
+		List<Request> batch = new ArrayList<Request>(maxBatchSize);
+		List<Image> images = new ArrayList<Image>(maxBatchSize);
+		while (!mStop) {
+			try {
+				Request first = queue.take();
+				batch.add(first);
+				long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(maxWaitMs);
+				while (batch.size() < maxBatchSize) {
+					long remain = deadline - System.nanoTime();
+					Request next = remain > 0 ? queue.poll(remain, TimeUnit.NANOSECONDS) : queue.poll();
+					if (next == null) break;
+					batch.add(next);
+				}
+			} catch (InterruptedException e) {
+				if (mStop) break;
+				continue;
+			}
+			for (Request req : batch) {
+				images.add(req.image);
+			}
+			try {
+				List<Float> scores = livenessDetector.getFakeScores(images);
+				for (int i = 0; i < batch.size(); i++) {
+					batch.get(i).score.complete(scores.get(i));
+				}
+			} catch (Exception e) {
+				logger.debug(e.toString());
+				for (Request req : batch) {
+					req.score.completeExceptionally(e);
+				}
+			}
+			batch.clear();
+			images.clear();
+		}
+		failPending();
+	}
+
+	private void failPending()
+	{
+		for (Request req = queue.poll(); req != null; req = queue.poll()) {
+			req.score.completeExceptionally(new IllegalStateException("liveness batcher is closed"));
+		}
+	}
+
+	@Override
+	public void close()
+	{
+		mStop = true;
+		worker.interrupt();
+		try {
+			worker.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		// requests that raced with close
+		failPending();
+	}
+}
@@ -0,0 +1,142 @@
+package LivenessDetect;
+
+// Sequential liveness decision over the frames of one video.
+// Every frame votes live (fake score below LivenessDetector.FAKE_THRESHOLD) or fake, and a
+// sequential probability ratio test (SPRT) between "the clip is live" (a frame votes live with
+// probability pLive) and "the clip is fake" (probability pFake) stops as soon as the log
+// likelihood ratio crosses the bound given by the error rates alpha (fake accepted as live)
+// and beta (live rejected as fake).
+// With the defaults, 4 agreeing frames settle the verdict, so most clips are decided in the
+// first frames instead of at the end of the file.
+public class LivenessDecision {
+	public enum Verdict { UNDECIDED, LIVE, FAKE }
+
+	public static final float DEFAULT_P_LIVE = 0.8f;
+	public static final float DEFAULT_P_FAKE = 0.2f;
+	public static final float DEFAULT_ERROR = 0.01f;
+	private final int minFrames;
+	private final int maxFrames;
+	// log likelihood ratio step of a live and a fake vote
+	private final double liveStep;
+	private final double fakeStep;
+	private final double upperBound;
+	private final double lowerBound;
+	private int frames = 0;
+	private int liveFrames = 0;
+	private double scoreSum = 0;
+	private double llr = 0;
+	private Verdict verdict = Verdict.UNDECIDED;
+
+	// maxFrames <= 0 means no limit, the verdict may then stay open until finish()
+	public LivenessDecision(int minFrames, int maxFrames)
+	{
+		this(minFrames, maxFrames, DEFAULT_P_LIVE, DEFAULT_P_FAKE, DEFAULT_ERROR, DEFAULT_ERROR);
+	}
+
+	public LivenessDecision(int minFrames, int maxFrames, float pLive, float pFake, float alpha, float beta)
+	{
+		checkBounds(minFrames, maxFrames);
+		if (!(pFake > 0 && pFake < pLive && pLive < 1)) {
+			throw new IllegalArgumentException("0 < pFake < pLive < 1 is required, " + pFake + ", " + pLive);
+		}
+		if (!(alpha > 0 && alpha < 1 && beta > 0 && beta < 1)) {
+			throw new IllegalArgumentException("error rates must be in (0, 1), " + alpha + ", " + beta);
+		}
+		this.minFrames = minFrames;
+		this.maxFrames = maxFrames;
+		liveStep = Math.log(pLive / pFake);
+		fakeStep = Math.log((1 - pLive) / (1 - pFake));
+		upperBound = Math.log((1 - beta) / alpha);
+		lowerBound = Math.log(beta / (1 - alpha));
+	}
+
+	// throws IllegalArgumentException when the frame limits can't be used for a decision
+	public static void checkBounds(int minFrames, int maxFrames)
+	{
+		if (minFrames < 1) {
+			throw new IllegalArgumentException("minFrames must be positive, " + minFrames);
+		}
+		if (maxFrames > 0 && maxFrames < minFrames) {
+			throw new IllegalArgumentException("maxFrames must not be less than minFrames, " + maxFrames);
+		}
+	}
+
+	// start over for a new clip
+	public void reset()
+	{
+		frames = 0;
+		liveFrames = 0;
+		scoreSum = 0;
+		llr = 0;
+		verdict = Verdict.UNDECIDED;
+	}
+
+	// add the fake score of the next frame, returns the verdict so far.
+	// Once decided, the verdict does not change until reset()
+	public Verdict add(float fakeScore)
+	{
+		if (verdict != Verdict.UNDECIDED) return verdict;
+		frames++;
+		scoreSum += fakeScore;
+		if (fakeScore < LivenessDetector.FAKE_THRESHOLD) {
+			liveFrames++;
+			llr += liveStep;
+		} else {
+			llr += fakeStep;
+		}
+		if (frames >= minFrames) {
+			if (llr >= upperBound) {
+				verdict = Verdict.LIVE;
+			} else if (llr <= lowerBound) {
+				verdict = Verdict.FAKE;
+			} else if (maxFrames > 0 && frames >= maxFrames) {
+				verdict = majority();
+			}
+		}
+		return verdict;
+	}
+
+	// end of the clip, decide by the evidence so far if the test hasn't; fake without any frame
+	public Verdict finish()
+	{
+		if (verdict == Verdict.UNDECIDED) {
+			verdict = frames == 0 ? Verdict.FAKE : majority();
+		}
+		return verdict;
+	}
+
+	public Verdict getVerdict()
+	{
+		return verdict;
+	}
+
+	public boolean isDecided()
+	{
+		return verdict != Verdict.UNDECIDED;
+	}
+
+	public int getFrames()
+	{
+		return frames;
+	}
+
+	public int getLiveFrames()
+	{
+		return liveFrames;
+	}
+
+	public float getMeanScore()
+	{
+		return frames == 0 ? Float.NaN : (float) (scoreSum / frames);
+	}
+
+	public double getLogLikelihoodRatio()
+	{
+		return llr;
+	}
+
+	private Verdict majority()
+	{
+		return llr > 0 ? Verdict.LIVE : Verdict.FAKE;
+	}
+}
@@ -6,23 +6,33 @@ package LivenessDetect;
 import ai.djl.*;
 import ai.djl.inference.*;
 import ai.djl.modality.cv.Image;
-import ai.djl.modality.cv.util.NDImageUtils;
-import ai.djl.ndarray.*;
 import ai.djl.translate.*;
 
+import static org.bytedeco.opencv.global.opencv_core.CV_8UC3;
+
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.bytedeco.opencv.opencv_core.Mat;
+import org.bytedeco.opencv.opencv_core.Scalar;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-public class LivenessDetector {
+public class LivenessDetector implements AutoCloseable {
 	private static final Logger logger = LoggerFactory.getLogger(LivenessDetector.class);
-	private static final String modelFile = "liveness_model.pt";
+	static final String modelFile = "liveness_model.pt";
 	private String modelDir = "/home/maxim/model/";
+	// fake score below this value is regarded as real face
+	public static final float FAKE_THRESHOLD = 0.45f;
 	
-    static Predictor<Image, Float> predictor=null;
-    static Model model = null;
+	// DJL Predictor is not thread safe, so every worker thread checks out its own one
+	// from the pool, all predictors share one loaded model
+	private int poolSize = 1;
+    private ResourcePool<Predictor<Image, Float>> predictors = null;
+    private Model model = null;
 
     public LivenessDetector() { }
     
@@ -31,6 +41,20 @@ public class LivenessDetector {
     	this.modelDir = modelDir;
     }
     
+    public LivenessDetector(String modelDir, int poolSize) throws MalformedModelException, IOException
+    {
+    	this.modelDir = modelDir;
+    	if (poolSize < 1) {
+    		throw new IllegalArgumentException("predictor pool size must be positive, " + poolSize);
+    	}
+    	this.poolSize = poolSize;
+    }
+    
+    public int getPoolSize()
+    {
+    	return poolSize;
+    }
+    
     public boolean init() 
 	{
     	// https://github.com/deepjavalibrary/djl/issues/147
@@ -58,35 +82,8 @@ public class LivenessDetector {
 			model = Model.newInstance(modelFile, Device.cpu(), "PyTorch"); 
 			model.load(path, modelFile);
 			//create the predictor
-			Translator<Image, Float>  translator = new Translator<Image, Float>() {
-				@Override
-				public NDList processInput(TranslatorContext ctx, Image input) throws Exception {
-					NDManager manager = ctx.getNDManager();
-					NDArray imageND1 = input.toNDArray(manager);
-					NDArray imageND2 = NDImageUtils.resize(imageND1, 480, 480);
-					NDArray imageND3 = imageND2.transpose(2, 0, 1).flip(0); // HWC->CHW BGR->RGB
-					NDArray imageND4 = NDImageUtils.normalize(imageND3,
-							new float[] {117f, 123f, 104f}, // BGR<->RGB exchanged?
-							new float[] {57f, 58f, 57f});	// BGR<->RGB exchanged?
-					return new NDList(imageND4);
-				}
-
-				@Override
-				public Float processOutput(TranslatorContext ctx, NDList list) throws Exception {
-					NDArray pred = list.get(0);
-					float x = pred.getFloat(0);
-					// get sigmoid
-			        double d = 1+ Math.exp(-x);
-			        float result = 1/(float)d;
-					return result;
-				}
-	
-				@Override
-				public Batchifier getBatchifier() {
-					return Batchifier.STACK;
-				}   
-			};
-			predictor = model.newPredictor(translator);
+			Translator<Image, Float>  translator = new LivenessTranslator();
+			predictors = new ResourcePool<Predictor<Image, Float>>(poolSize, () -> model.newPredictor(translator));
     	}
     	catch(Exception e)
     	{
@@ -99,16 +96,123 @@ public class LivenessDetector {
 	
     public boolean detectLiveness(Image img)
     {
-		float res;
 		try {
-			res = predictor.predict(img);
-			System.out.println("fake score = " + Float.toString(res));
-			logger.info("fake score = " + Float.toString(res));
-			if (res < 0.45) return true;
+			float res = getFakeScore(img);
+			if (res < FAKE_THRESHOLD) return true;
 			else return false;
 		} catch (TranslateException e) {
 			e.printStackTrace();
 			return false;
 		}
     }
+
+    public float getFakeScore(Image img) throws TranslateException
+    {
+		float res = Float.NaN;
+		FrameEvents.Inference event = FrameEvents.beginInference();
+		Predictor<Image, Float> predictor = acquirePredictor();
+		try {
+			res = predictor.predict(img);
+		} finally {
+			predictors.release(predictor);
+			FrameEvents.endInference(event, 1, res);
+		}
+		// printing is left to interactive callers, PrintStream is synchronized and would serialize
+		// the threads of batch, server and benchmark runs
+		logger.debug("fake score = " + Float.toString(res));
+		return res;
+    }
+
+    // run the face images through the model as one batch (Batchifier.STACK)
+    // and return the fake score of each image in input order
+    public List<Float> getFakeScores(List<Image> imgs) throws TranslateException
+    {
+		if (imgs.isEmpty()) return new ArrayList<Float>();
+		List<Float> scores = null;
+		FrameEvents.Inference event = FrameEvents.beginInference();
+		Predictor<Image, Float> predictor = acquirePredictor();
+		try {
+			scores = predictor.batchPredict(imgs);
+		} finally {
+			predictors.release(predictor);
+			FrameEvents.endInference(event, imgs.size(), scores != null ? Collections.max(scores) : Float.NaN);
+		}
+		if (logger.isDebugEnabled()) {
+			for (int i = 0; i < scores.size(); i++) {
+				logger.debug("fake score[" + i + "] = " + Float.toString(scores.get(i)));
+			}
+		}
+		return scores;
+    }
+
+    public List<Boolean> detectLivenessBatch(List<Image> imgs)
+    {
+		List<Boolean> result = new ArrayList<Boolean>(imgs.size());
+		try {
+			List<Float> scores = getFakeScores(imgs);
+			for (float res : scores) {
+				result.add(res < FAKE_THRESHOLD);
+			}
+		} catch (TranslateException e) {
+			e.printStackTrace();
+			result.clear();
+			for (int i = 0; i < imgs.size(); i++) {
+				result.add(false);
+			}
+		}
+		return result;
+    }
+
+    // Run every predictor of the pool on a synthetic face image, single and in a batch of 2,
+    // before the first real one. The first forward passes of TorchScript profile the graph
+    // and are much slower than the later ones.
+    // Call it before the detector is in use, it checks out the whole pool
+    public void warmUp(int iterations) throws TranslateException
+    {
+		if (iterations <= 0) return;
+		List<Predictor<Image, Float>> taken = new ArrayList<Predictor<Image, Float>>(poolSize);
+		int size = LivenessPreprocessor.INPUT_SIZE;
+		try (Mat face = new Mat(size, size, CV_8UC3, new Scalar(128.0, 128.0, 128.0, 0))) {
+			Image img = new MatImage(face);
+			List<Image> batch = new ArrayList<Image>();
+			batch.add(img);
+			batch.add(img);
+			for (int i = 0; i < poolSize; i++) {
+				taken.add(acquirePredictor());
+			}
+			for (Predictor<Image, Float> predictor : taken) {
+				for (int n = 0; n < iterations; n++) {
+					predictor.predict(img);
+					predictor.batchPredict(batch);
+				}
+			}
+		} finally {
+			for (Predictor<Image, Float> predictor : taken) {
+				predictors.release(predictor);
+			}
+		}
+    }
+
+    private Predictor<Image, Float> acquirePredictor() throws TranslateException
+    {
+		try {
+			return predictors.acquire();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new TranslateException("interrupted while waiting for predictor", e);
+		}
+    }
+
+    @Override
+    public void close()
+    {
+		if (predictors != null) {
+			predictors.close();
+			predictors = null;
+		}
+		if (model != null) {
+			model.close();
+			model = null;
+		}
+    }
 }
\ No newline at end of file
@@ -0,0 +1,75 @@
+package LivenessDetect;
+
+import static org.bytedeco.opencv.global.opencv_core.CV_32F;
+import static org.bytedeco.opencv.global.opencv_core.CV_32FC3;
+import static org.bytedeco.opencv.global.opencv_core.split;
+import static org.bytedeco.opencv.global.opencv_imgproc.INTER_LINEAR;
+import static org.bytedeco.opencv.global.opencv_imgproc.resize;
+
+import java.nio.FloatBuffer;
+
+import org.bytedeco.opencv.opencv_core.Mat;
+import org.bytedeco.opencv.opencv_core.MatVector;
+import org.bytedeco.opencv.opencv_core.Size;
+
+// Fused preprocessing of the liveness model input.
+// Same result as LivenessTranslator.processInputNDArray() (resize to 480x480, HWC->CHW, BGR order,
+// (x - mean) / std), but computed from the BGR Mat in OpenCV into one reused direct float buffer
+// instead of a chain of intermediate NDArrays.
+public class LivenessPreprocessor {
+	public static final int INPUT_SIZE = 480;
+	// per channel of the model input, channels are in B, G, R order
+	static final float[] MEAN = new float[] {117f, 123f, 104f};
+	static final float[] STD = new float[] {57f, 58f, 57f};
+	// the class and the preprocessors are made during the first frames, everything is kept past the
+	// frame's PointerScope
+	private static final Size SIZE = NativeMemory.keep(new Size(INPUT_SIZE, INPUT_SIZE));
+	// buffers are reused, so every thread has its own preprocessor
+	private static final ThreadLocal<LivenessPreprocessor> preprocessors =
+			ThreadLocal.withInitial(LivenessPreprocessor::new);
+
+	private final Mat floatImage = NativeMemory.keep(new Mat());
+	private final Mat resized = NativeMemory.keep(new Mat());
+	// 3 planes of INPUT_SIZE x INPUT_SIZE floats, one after another (CHW)
+	private final Mat chw = NativeMemory.keep(new Mat(3 * INPUT_SIZE, INPUT_SIZE, CV_32F));
+	private final Mat[] planes = new Mat[3];
+	private final MatVector planeVector;
+	private final FloatBuffer chwBuffer;
+
+	private LivenessPreprocessor()
+	{
+		for (int c = 0; c < 3; c++) {
+			planes[c] = NativeMemory.keep(chw.rowRange(c * INPUT_SIZE, (c + 1) * INPUT_SIZE));
+		}
+		planeVector = NativeMemory.keep(new MatVector(planes));
+		chwBuffer = chw.createBuffer();
+	}
+
+	public static LivenessPreprocessor get()
+	{
+		return preprocessors.get();
+	}
+
+	// Preprocess 8 bit BGR image, the returned buffer is reused by the next call on this thread
+	public FloatBuffer process(Mat bgr)
+	{
+		// convert to float first, so resize interpolates like NDImageUtils.resize() does
+		long start = System.nanoTime();
+		bgr.convertTo(floatImage, CV_32FC3);
+		Metrics.record(Metrics.Stage.CONVERT, System.nanoTime() - start);
+		resize(floatImage, resized, SIZE, 0, 0, INTER_LINEAR);
+		// HWC -> CHW, split writes straight into the planes of chw
+		split(resized, planeVector);
+		for (int c = 0; c < 3; c++) {
+			Mat plane = planeVector.get(c);
+			if (plane.data().address() != planes[c].data().address()) {
+				// split reallocated the output, copy it back into chw
+				plane.copyTo(planes[c]);
+			}
+			// (x - mean) / std in place
+			planes[c].convertTo(planes[c], CV_32F, 1.0 / STD[c], -MEAN[c] / STD[c]);
+		}
+		chwBuffer.rewind();
+		return chwBuffer;
+	}
+}
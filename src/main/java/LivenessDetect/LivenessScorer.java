@@ -0,0 +1,206 @@
+package LivenessDetect;
+
+import static org.bytedeco.opencv.global.opencv_imgcodecs.imread;
+
+import java.util.ArrayList;
+import java.util.Locale;
+import org.bytedeco.javacv.FFmpegFrameGrabber;
+import org.bytedeco.javacv.Frame;
+import org.bytedeco.opencv.opencv_core.Mat;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+// Scores whole image and video files into a ScoreResult, for batch and service use.
+// An image is searched for faces as a video frame is and the crop of its first face is scored, an image
+// without face is taken for a face crop already and scored whole, as the image mode of App does;
+// a video as the headless ffmpeg mode: faces searched on frames scaled down by the decoder and cut from
+// the full resolution frame,
+// optional sparse sampling, the first face of every frame and an early exit decision.
+// Thread safe, the detectors are shared through their pools and all state of a file is local
+// to the call, so workers up to the pool size of the detectors run in parallel.
+public class LivenessScorer {
+	private static final Logger logger = LoggerFactory.getLogger(LivenessScorer.class);
+	private static final String[] IMAGE_EXTENSIONS = {".jpg", ".jpeg", ".png", ".bmp"};
+	private static final String[] VIDEO_EXTENSIONS = {".mp4", ".avi", ".mov", ".mkv", ".webm", ".m4v", ".3gp"};
+	private final FaceDetector faceDetector;
+	private final LivenessDetector livenessDetector;
+	private float faceThreshold = 0.89f;
+	private int trackInterval = 1;
+	private int minFrames = 5;
+	private int maxFrames = 0;
+	// long side video is decoded at, 0 for full size, see DetectionScaler
+	private int detectWidth = DetectionScaler.DEFAULT_MAX_SIDE;
+	// null for every frame, see FrameSampler.create()
+	private String sampleOption = null;
+
+	public LivenessScorer(FaceDetector faceDetector, LivenessDetector livenessDetector)
+	{
+		this.faceDetector = faceDetector;
+		this.livenessDetector = livenessDetector;
+	}
+
+	public void setTrackInterval(int trackInterval)
+	{
+		if (trackInterval < 1) {
+			throw new IllegalArgumentException("track interval must be positive, " + trackInterval);
+		}
+		this.trackInterval = trackInterval;
+	}
+
+	public void setFrameLimits(int minFrames, int maxFrames)
+	{
+		LivenessDecision.checkBounds(minFrames, maxFrames);
+		this.minFrames = minFrames;
+		this.maxFrames = maxFrames;
+	}
+
+	public void setDetectWidth(int detectWidth)
+	{
+		this.detectWidth = detectWidth;
+	}
+
+	public void setSampleOption(String sampleOption)
+	{
+		this.sampleOption = sampleOption;
+	}
+
+	public static boolean isImage(String path)
+	{
+		return hasExtension(path, IMAGE_EXTENSIONS);
+	}
+
+	public static boolean isVideo(String path)
+	{
+		return hasExtension(path, VIDEO_EXTENSIONS);
+	}
+
+	// image or video by file extension
+	public ScoreResult score(String path)
+	{
+		return isImage(path) ? scoreImage(path) : scoreVideo(path);
+	}
+
+	public ScoreResult scoreImage(String path)
+	{
+		long start = System.nanoTime();
+		Mat image = imread(path);
+		long decodeNanos = System.nanoTime() - start;
+		Metrics.record(Metrics.Stage.DECODE, decodeNanos);
+		try {
+			if (image.empty()) {
+				ScoreResult result = new ScoreResult(path, "image");
+				result.error = "can not read image";
+				result.totalNanos = System.nanoTime() - start;
+				return result;
+			}
+			ScoreResult result = scoreImage(image, path);
+			result.decodeNanos = decodeNanos;
+			result.totalNanos += decodeNanos;
+			return result;
+		} finally {
+			image.close();
+		}
+	}
+
+	// score a decoded 8 bit BGR image, source is reported as its path
+	public ScoreResult scoreImage(Mat image, String source)
+	{
+		ScoreResult result = new ScoreResult(source, "image");
+		long start = System.nanoTime();
+		Mat face = null;
+		try {
+			ArrayList<faceBox> boxes = faceDetector.getFaceBoxes(image, faceThreshold, false);
+			face = faceDetector.extract_facebox_area(image, boxes, false);
+			long t1 = System.nanoTime();
+			result.detectNanos = t1 - start;
+			if (face != null) {
+				result.box = boxes.get(0);
+			}
+			result.fakeScore = livenessDetector.getFakeScore(
+					MatImageFactory.getInstance().fromImage(face != null ? face : image));
+			result.inferNanos = System.nanoTime() - t1;
+			result.frames = 1;
+			result.verdict = result.fakeScore < LivenessDetector.FAKE_THRESHOLD ?
+					ScoreResult.Verdict.LIVE : ScoreResult.Verdict.FAKE;
+		} catch (Exception e) {
+			logger.debug(e.toString());
+			result.fail(e);
+		} finally {
+			if (face != null) face.close();
+		}
+		result.totalNanos = System.nanoTime() - start;
+		return result;
+	}
+
+	public ScoreResult scoreVideo(String path)
+	{
+		ScoreResult result = new ScoreResult(path, "video");
+		long start = System.nanoTime();
+		FFmpegFrameGrabber grabber = new FFmpegFrameGrabber(path);
+		LivenessDecision decision = new LivenessDecision(minFrames, maxFrames);
+		try (FaceTracker tracker = new FaceTracker(faceDetector, trackInterval);
+				DetectionScaler scaler = new DetectionScaler(detectWidth)) {
+			grabber.start();
+			scaler.start(grabber, path);
+			FrameSampler sampler = FrameSampler.create(grabber, sampleOption);
+			boolean noFace = false;
+			while (!decision.isDecided()) {
+				long t0 = System.nanoTime();
+				Frame frame = sampler.next();
+				if (frame == null) break;
+				if (frame.image == null) continue;
+				Mat mat = ImageConverter.toMat(frame);
+				long t1 = System.nanoTime();
+				result.decodeNanos += t1 - t0;
+				Metrics.record(Metrics.Stage.DECODE, t1 - t0);
+				ArrayList<faceBox> boxes = scaler.toFullResolution(tracker.getFaceBoxes(mat, faceThreshold, false));
+				Mat face = boxes.isEmpty() ? null : faceDetector.extract_facebox_area(
+						scaler.fullResolutionFrame(mat, frame.timestamp), boxes, false);
+				long t2 = System.nanoTime();
+				result.detectNanos += t2 - t1;
+				if (face == null) {
+					// as in the ffmpeg mode, a frame without face makes the clip fake
+					noFace = true;
+					break;
+				}
+				result.box = boxes.get(0);
+				try {
+					decision.add(livenessDetector.getFakeScore(MatImageFactory.getInstance().fromImage(face)));
+				} finally {
+					face.close();
+				}
+				result.inferNanos += System.nanoTime() - t2;
+				result.frames++;
+			}
+			if (noFace) {
+				result.verdict = ScoreResult.Verdict.NO_FACE;
+			} else {
+				result.verdict = decision.finish() == LivenessDecision.Verdict.LIVE ?
+						ScoreResult.Verdict.LIVE : ScoreResult.Verdict.FAKE;
+			}
+			result.fakeScore = decision.getMeanScore();
+		} catch (Exception e) {
+			logger.debug(path + ": " + e);
+			result.fail(e);
+		} finally {
+			try {
+				grabber.stop();
+				grabber.release();
+				grabber.close();
+			} catch (Exception e) {
+				logger.debug(e.toString());
+			}
+		}
+		result.totalNanos = System.nanoTime() - start;
+		return result;
+	}
+
+	private static boolean hasExtension(String path, String[] extensions)
+	{
+		String lower = path.toLowerCase(Locale.ROOT);
+		for (String ext : extensions) {
+			if (lower.endsWith(ext)) return true;
+		}
+		return false;
+	}
+}
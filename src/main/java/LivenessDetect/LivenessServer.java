@@ -0,0 +1,259 @@
+package LivenessDetect;
+
+import static org.bytedeco.opencv.global.opencv_imgcodecs.IMREAD_COLOR;
+import static org.bytedeco.opencv.global.opencv_imgcodecs.imdecode;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Method;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.bytedeco.opencv.opencv_core.Mat;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+// Long lived scoring service on loopback, the models are loaded once and stay warm.
+//   POST /score/image            body is an encoded image (jpg, png, ...)
+//   POST /score/video?path=file  scores a local video file, the path may also be sent as the body
+//   GET  /health
+//   GET  /metrics                Prometheus text of Metrics
+// Answers are the ScoreResult JSON of the batch mode.
+// Requests are read and answered on virtual threads when the JVM has them (Java 21 and later), on a
+// thread pool otherwise. Scoring itself runs on maxConcurrent platform threads that live as long as
+// the server: the scoring path keeps per-thread native buffers (LivenessPreprocessor, ImageConverter),
+// which a fresh thread per request would rebuild every time and leave to the GC to free.
+// At most maxConcurrent requests are scored at once, the others wait for a slot
+// up to queueTimeoutMs and are then refused with 503.
+public class LivenessServer implements AutoCloseable {
+	private static final Logger logger = LoggerFactory.getLogger(LivenessServer.class);
+	public static final long DEFAULT_QUEUE_TIMEOUT_MS = 30000;
+	// larger request bodies are refused with 413
+	private static final int MAX_BODY_SIZE = 32 * 1024 * 1024;
+	private final LivenessScorer scorer;
+	private final int port;
+	private final int maxConcurrent;
+	private final Semaphore permits;
+	private long queueTimeoutMs = DEFAULT_QUEUE_TIMEOUT_MS;
+	private HttpServer server = null;
+	private ExecutorService executor = null;
+	// maxConcurrent scoring threads, a permit guarantees a free one
+	private ExecutorService scorers = null;
+
+	public LivenessServer(LivenessScorer scorer, int port, int maxConcurrent)
+	{
+		if (maxConcurrent < 1) {
+			throw new IllegalArgumentException("maxConcurrent must be positive, " + maxConcurrent);
+		}
+		this.scorer = scorer;
+		this.port = port;
+		this.maxConcurrent = maxConcurrent;
+		this.permits = new Semaphore(maxConcurrent, true);
+	}
+
+	public void setQueueTimeoutMs(long queueTimeoutMs)
+	{
+		this.queueTimeoutMs = queueTimeoutMs;
+	}
+
+	public void start() throws IOException
+	{
+		server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 64);
+		server.createContext("/score/image", this::handleImage);
+		server.createContext("/score/video", this::handleVideo);
+		server.createContext("/health", ex -> send(ex, 200, "{\"status\":\"ok\"}"));
+		server.createContext("/metrics", Metrics::handle);
+		executor = newRequestExecutor(Math.max(8, maxConcurrent * 2));
+		AtomicInteger scorerCount = new AtomicInteger();
+		scorers = Executors.newFixedThreadPool(maxConcurrent, r -> {
+			Thread t = new Thread(r, "liveness-scorer-" + scorerCount.getAndIncrement());
+			t.setDaemon(true);
+			return t;
+		});
+		server.setExecutor(executor);
+		server.start();
+		logger.info("liveness server listening on " + server.getAddress());
+	}
+
+	// bound port, useful when started on port 0
+	public int getPort()
+	{
+		return server != null ? server.getAddress().getPort() : port;
+	}
+
+	private interface Scoring {
+		// null for a bad request
+		ScoreResult score() throws IOException;
+	}
+
+	private void handleImage(HttpExchange ex) throws IOException
+	{
+		if (!ex.getRequestMethod().equals("POST")) {
+			send(ex, 405, "{\"error\":\"POST an encoded image\"}");
+			return;
+		}
+		byte[] body = readBody(ex);
+		if (body == null) return;
+		score(ex, () -> {
+			try (Mat encoded = new Mat(body); Mat image = imdecode(encoded, IMREAD_COLOR)) {
+				if (image == null || image.empty()) return null;
+				return scorer.scoreImage(image, "request");
+			}
+		});
+	}
+
+	private void handleVideo(HttpExchange ex) throws IOException
+	{
+		String path = queryParameter(ex, "path");
+		if (path == null && ex.getRequestMethod().equals("POST")) {
+			byte[] body = readBody(ex);
+			if (body == null) return;
+			path = new String(body, StandardCharsets.UTF_8).trim();
+		}
+		if (path == null || path.isEmpty()) {
+			send(ex, 400, "{\"error\":\"path of local video file is required\"}");
+			return;
+		}
+		if (!new File(path).isFile()) {
+			send(ex, 404, "{\"error\":" + ScoreResult.jsonString("no such file, " + path) + "}");
+			return;
+		}
+		final String videoPath = path;
+		score(ex, () -> scorer.scoreVideo(videoPath));
+	}
+
+	private void score(HttpExchange ex, Scoring scoring) throws IOException
+	{
+		try {
+			if (!permits.tryAcquire(queueTimeoutMs, TimeUnit.MILLISECONDS)) {
+				send(ex, 503, "{\"error\":\"server busy\"}");
+				return;
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			send(ex, 503, "{\"error\":\"server stopping\"}");
+			return;
+		}
+		Future<ScoreResult> future;
+		try {
+			// the permit is held until the scoring ends, not until this thread stops waiting for it,
+			// so an abandoned request can't let more scorings run than there are detectors
+			future = scorers.submit(() -> {
+				try {
+					return scoring.score();
+				} finally {
+					permits.release();
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			permits.release();
+			send(ex, 503, "{\"error\":\"server stopping\"}");
+			return;
+		}
+		ScoreResult result;
+		try {
+			result = future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			send(ex, 503, "{\"error\":\"server stopping\"}");
+			return;
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			logger.debug(cause.toString());
+			send(ex, 500, "{\"error\":" + ScoreResult.jsonString(cause.toString()) + "}");
+			return;
+		}
+		if (result == null) {
+			send(ex, 400, "{\"error\":\"can not decode image\"}");
+			return;
+		}
+		send(ex, result.getVerdict() == ScoreResult.Verdict.ERROR ? 500 : 200, result.toJson());
+	}
+
+	// null if the body is too large, the answer is sent then
+	private static byte[] readBody(HttpExchange ex) throws IOException
+	{
+		try (InputStream is = ex.getRequestBody()) {
+			ByteArrayOutputStream bos = new ByteArrayOutputStream();
+			byte[] buf = new byte[64 * 1024];
+			for (int n = is.read(buf); n >= 0; n = is.read(buf)) {
+				if (bos.size() + n > MAX_BODY_SIZE) {
+					send(ex, 413, "{\"error\":\"request body too large\"}");
+					return null;
+				}
+				bos.write(buf, 0, n);
+			}
+			return bos.toByteArray();
+		}
+	}
+
+	private static String queryParameter(HttpExchange ex, String name)
+	{
+		String query = ex.getRequestURI().getRawQuery();
+		if (query == null) return null;
+		for (String pair : query.split("&")) {
+			int eq = pair.indexOf('=');
+			String key = eq < 0 ? pair : pair.substring(0, eq);
+			if (key.equals(name)) {
+				return eq < 0 ? "" : URLDecoder.decode(pair.substring(eq + 1), StandardCharsets.UTF_8);
+			}
+		}
+		return null;
+	}
+
+	private static void send(HttpExchange ex, int status, String json) throws IOException
+	{
+		byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+		ex.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+		ex.sendResponseHeaders(status, bytes.length);
+		try (OutputStream os = ex.getResponseBody()) {
+			os.write(bytes);
+		}
+	}
+
+	// virtual thread per request when the runtime has them, the project is built for Java 11,
+	// so Executors.newVirtualThreadPerTaskExecutor() is looked up by reflection
+	private static ExecutorService newRequestExecutor(int fallbackThreads)
+	{
+		try {
+			Method m = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			logger.debug("requests run on virtual threads");
+			return (ExecutorService) m.invoke(null);
+		} catch (ReflectiveOperationException e) {
+			logger.debug("no virtual threads, requests run on " + fallbackThreads + " threads");
+			return Executors.newFixedThreadPool(fallbackThreads);
+		}
+	}
+
+	@Override
+	public void close()
+	{
+		if (server != null) {
+			server.stop(1);
+			server = null;
+		}
+		if (executor != null) {
+			executor.shutdownNow();
+			executor = null;
+		}
+		if (scorers != null) {
+			scorers.shutdownNow();
+			scorers = null;
+		}
+	}
+}
@@ -0,0 +1,81 @@
+package LivenessDetect;
+
+import ai.djl.modality.cv.Image;
+import ai.djl.modality.cv.util.NDImageUtils;
+import ai.djl.ndarray.NDArray;
+import ai.djl.ndarray.NDList;
+import ai.djl.ndarray.NDManager;
+import ai.djl.ndarray.types.DataType;
+import ai.djl.ndarray.types.Shape;
+import ai.djl.translate.Batchifier;
+import ai.djl.translate.Translator;
+import ai.djl.translate.TranslatorContext;
+
+import static org.bytedeco.opencv.global.opencv_core.CV_8UC3;
+
+import java.nio.FloatBuffer;
+
+import org.bytedeco.opencv.opencv_core.Mat;
+
+// Translator of the liveness model: face image -> 3x480x480 normalized BGR tensor -> fake score
+// The predictor calls processInput for every image, the model and processOutput for every image
+// on the calling thread, so the forward time is taken from the end of the last processInput to the
+// first processOutput of the thread.
+public class LivenessTranslator implements Translator<Image, Float> {
+	private static final ThreadLocal<long[]> inputDone = ThreadLocal.withInitial(() -> new long[1]);
+
+	@Override
+	public NDList processInput(TranslatorContext ctx, Image input) throws Exception {
+		long start = System.nanoTime();
+		NDList list = processInputList(ctx.getNDManager(), input);
+		long end = System.nanoTime();
+		Metrics.record(Metrics.Stage.PREPROCESS, end - start);
+		inputDone.get()[0] = end;
+		return list;
+	}
+
+	private static NDList processInputList(NDManager manager, Image input) {
+		Object wrapped = input.getWrappedImage();
+		if (wrapped instanceof Mat && ((Mat) wrapped).type() == CV_8UC3) {
+			// BGR Mat: resize, HWC->CHW and normalization in OpenCV with reused buffers
+			FloatBuffer data = LivenessPreprocessor.get().process((Mat) wrapped);
+			int size = LivenessPreprocessor.INPUT_SIZE;
+			return new NDList(manager.create(data, new Shape(3, size, size), DataType.FLOAT32));
+		}
+		return new NDList(processInputNDArray(manager, input));
+	}
+
+	// reference preprocessing with NDArray operations, used for any other Image
+	static NDArray processInputNDArray(NDManager manager, Image input) {
+		NDArray imageND1 = input.toNDArray(manager);
+		NDArray imageND2 = NDImageUtils.resize(imageND1, LivenessPreprocessor.INPUT_SIZE, LivenessPreprocessor.INPUT_SIZE);
+		NDArray imageND3 = imageND2.transpose(2, 0, 1).flip(0); // HWC->CHW RGB->BGR
+		NDArray imageND4 = NDImageUtils.normalize(imageND3,
+				LivenessPreprocessor.MEAN, // BGR<->RGB exchanged?
+				LivenessPreprocessor.STD);	// BGR<->RGB exchanged?
+		return imageND4;
+	}
+
+	@Override
+	public Float processOutput(TranslatorContext ctx, NDList list) throws Exception {
+		long start = System.nanoTime();
+		long[] done = inputDone.get();
+		if (done[0] != 0) {
+			// first output of a batch
+			Metrics.record(Metrics.Stage.FORWARD, start - done[0]);
+			done[0] = 0;
+		}
+		NDArray pred = list.get(0);
+		float x = pred.getFloat(0);
+		// get sigmoid
+        double d = 1+ Math.exp(-x);
+        float result = 1/(float)d;
+		Metrics.record(Metrics.Stage.POSTPROCESS, System.nanoTime() - start);
+		return result;
+	}
+
+	@Override
+	public Batchifier getBatchifier() {
+		return Batchifier.STACK;
+	}
+}
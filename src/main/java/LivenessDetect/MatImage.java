@@ -0,0 +1,146 @@
+package LivenessDetect;
+
+import ai.djl.modality.cv.BufferedImageFactory;
+import ai.djl.modality.cv.Image;
+import ai.djl.modality.cv.output.DetectedObjects;
+import ai.djl.modality.cv.output.Joints;
+import ai.djl.ndarray.NDArray;
+import ai.djl.ndarray.NDManager;
+import ai.djl.ndarray.types.DataType;
+import ai.djl.ndarray.types.Shape;
+
+import static org.bytedeco.opencv.global.opencv_core.CV_8UC1;
+import static org.bytedeco.opencv.global.opencv_core.CV_8UC3;
+import static org.bytedeco.opencv.global.opencv_core.CV_8UC4;
+import static org.bytedeco.opencv.global.opencv_imgproc.COLOR_BGR2GRAY;
+import static org.bytedeco.opencv.global.opencv_imgproc.COLOR_BGR2RGB;
+import static org.bytedeco.opencv.global.opencv_imgproc.COLOR_BGRA2GRAY;
+import static org.bytedeco.opencv.global.opencv_imgproc.COLOR_BGRA2RGB;
+import static org.bytedeco.opencv.global.opencv_imgproc.COLOR_GRAY2RGB;
+import static org.bytedeco.opencv.global.opencv_imgproc.cvtColor;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import javax.imageio.ImageIO;
+
+import org.bytedeco.opencv.opencv_core.Mat;
+import org.bytedeco.opencv.opencv_core.Rect;
+
+// DJL Image backed directly by a JavaCV Mat (BGR, BGRA or gray 8 bit).
+// toNDArray() builds the tensor from the Mat's native memory,
+// so frames from OpenCV reach the predictor without going through BufferedImage.
+public class MatImage implements Image {
+	private final Mat mat;
+	// RGB/gray copy handed to the NDManager, kept as long as this image
+	// because the tensor may be created on top of its memory
+	private Mat converted = null;
+	private int convertedCode = -1;
+
+	public MatImage(Mat mat)
+	{
+		int type = mat.type();
+		if (type != CV_8UC3 && type != CV_8UC1 && type != CV_8UC4) {
+			throw new IllegalArgumentException("Unsupported Mat type " + type + ", 8 bit BGR, BGRA or gray is expected");
+		}
+		this.mat = mat;
+	}
+
+	@Override
+	public int getWidth()
+	{
+		return mat.cols();
+	}
+
+	@Override
+	public int getHeight()
+	{
+		return mat.rows();
+	}
+
+	@Override
+	public Object getWrappedImage()
+	{
+		return mat;
+	}
+
+	@Override
+	public Image getSubimage(int x, int y, int w, int h)
+	{
+		try (Rect rect = new Rect(x, y, w, h)) {
+			return new MatImage(new Mat(mat, rect));
+		}
+	}
+
+	@Override
+	public Image duplicate(Type type)
+	{
+		return new MatImage(mat.clone());
+	}
+
+	@Override
+	public synchronized NDArray toNDArray(NDManager manager, Flag flag)
+	{
+		long start = System.nanoTime();
+		try {
+			return convert(manager, flag);
+		} finally {
+			Metrics.record(Metrics.Stage.CONVERT, System.nanoTime() - start);
+		}
+	}
+
+	private NDArray convert(NDManager manager, Flag flag)
+	{
+		boolean gray = flag == Flag.GRAYSCALE;
+		int code;
+		if (mat.type() == CV_8UC1) {
+			code = gray ? -1 : COLOR_GRAY2RGB;
+		} else if (mat.type() == CV_8UC4) {
+			code = gray ? COLOR_BGRA2GRAY : COLOR_BGRA2RGB;
+		} else {
+			code = gray ? COLOR_BGR2GRAY : COLOR_BGR2RGB;
+		}
+		Mat src = mat;
+		if (code >= 0 || !mat.isContinuous()) {
+			if (converted == null || convertedCode != code) {
+				converted = new Mat();
+				if (code >= 0) {
+					cvtColor(mat, converted, code);
+				} else {
+					mat.copyTo(converted);
+				}
+				convertedCode = code;
+			}
+			src = converted;
+		}
+		// HWC, RGB order for color image as other DJL Image implementations
+		ByteBuffer data = src.createBuffer();
+		return manager.create(data, new Shape(src.rows(), src.cols(), src.channels()), DataType.UINT8);
+	}
+
+	@Override
+	public void save(OutputStream os, String type) throws IOException
+	{
+		ImageIO.write(ImageConverter.toBufferedImage(mat, null), type, os);
+	}
+
+	@Override
+	public synchronized void drawBoundingBoxes(DetectedObjects detections)
+	{
+		// not a hot path, draw with the AWT implementation and copy the pixels back
+		BufferedImage bi = ImageConverter.toBufferedImage(mat, null);
+		BufferedImageFactory.getInstance().fromImage(bi).drawBoundingBoxes(detections);
+		ImageConverter.toMat(bi, mat);
+		converted = null;
+	}
+
+	@Override
+	public synchronized void drawJoints(Joints joints)
+	{
+		BufferedImage bi = ImageConverter.toBufferedImage(mat, null);
+		BufferedImageFactory.getInstance().fromImage(bi).drawJoints(joints);
+		ImageConverter.toMat(bi, mat);
+		converted = null;
+	}
+}
@@ -0,0 +1,97 @@
+package LivenessDetect;
+
+import ai.djl.modality.cv.Image;
+import ai.djl.modality.cv.ImageFactory;
+import ai.djl.ndarray.NDArray;
+import ai.djl.ndarray.types.DataType;
+import ai.djl.ndarray.types.Shape;
+
+import static org.bytedeco.opencv.global.opencv_core.CV_8UC1;
+import static org.bytedeco.opencv.global.opencv_core.CV_8UC3;
+import static org.bytedeco.opencv.global.opencv_imgcodecs.IMREAD_COLOR;
+import static org.bytedeco.opencv.global.opencv_imgcodecs.imdecode;
+import static org.bytedeco.opencv.global.opencv_imgcodecs.imread;
+import static org.bytedeco.opencv.global.opencv_imgproc.COLOR_RGB2BGR;
+import static org.bytedeco.opencv.global.opencv_imgproc.cvtColor;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+
+import org.bytedeco.opencv.opencv_core.Mat;
+
+// ImageFactory that creates MatImage, decoding is done by OpenCV instead of ImageIO
+public class MatImageFactory extends ImageFactory {
+	private static final MatImageFactory instance = new MatImageFactory();
+
+	public static MatImageFactory getInstance()
+	{
+		return instance;
+	}
+
+	@Override
+	public Image fromFile(Path path) throws IOException
+	{
+		Mat mat = imread(path.toString());
+		if (mat == null || mat.empty()) {
+			throw new IOException("Failed to read image from: " + path);
+		}
+		return new MatImage(mat);
+	}
+
+	@Override
+	public Image fromInputStream(InputStream is) throws IOException
+	{
+		byte[] buf = is.readAllBytes();
+		try (Mat encoded = new Mat(buf)) {
+			Mat mat = imdecode(encoded, IMREAD_COLOR);
+			if (mat == null || mat.empty()) {
+				throw new IOException("Failed to decode image from input stream");
+			}
+			return new MatImage(mat);
+		}
+	}
+
+	@Override
+	public Image fromImage(Object image)
+	{
+		// wrapping a Mat costs nothing, its pixels are converted by MatImage.toNDArray() or LivenessPreprocessor
+		if (image instanceof Mat) {
+			return new MatImage((Mat) image);
+		}
+		long start = System.nanoTime();
+		if (image instanceof BufferedImage) {
+			Image res = new MatImage(ImageConverter.toMat((BufferedImage) image, null));
+			Metrics.record(Metrics.Stage.CONVERT, System.nanoTime() - start);
+			return res;
+		}
+		throw new IllegalArgumentException("Only JavaCV Mat and BufferedImage are supported");
+	}
+
+	// HWC or CHW uint8 RGB/gray array, as returned by Image.toNDArray()
+	public Image fromNDArray(NDArray array)
+	{
+		Shape shape = array.getShape();
+		if (shape.dimension() != 3) {
+			throw new IllegalArgumentException("Shape should be HWC or CHW, " + shape);
+		}
+		if (shape.get(0) <= 3 && shape.get(2) > 3) {
+			array = array.transpose(1, 2, 0);
+			shape = array.getShape();
+		}
+		int rows = (int) shape.get(0);
+		int cols = (int) shape.get(1);
+		int channels = (int) shape.get(2);
+		if (channels != 1 && channels != 3) {
+			throw new IllegalArgumentException("1 or 3 channels are expected, " + shape);
+		}
+		byte[] data = array.toType(DataType.UINT8, false).toByteArray();
+		Mat mat = new Mat(rows, cols, channels == 3 ? CV_8UC3 : CV_8UC1);
+		mat.data().put(data);
+		if (channels == 3) {
+			cvtColor(mat, mat, COLOR_RGB2BGR);
+		}
+		return new MatImage(mat);
+	}
+}
@@ -0,0 +1,341 @@
+package LivenessDetect;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ToLongFunction;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import org.bytedeco.javacpp.Pointer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+// Process wide latency histograms of the frame stages and frame, face and drop counters.
+//   DECODE       grab and convert one video frame (or read one image), without waiting for a live camera
+//   DETECT       face detection of one frame, blob, forward and box parsing
+//   CROP         face area of one box
+//   CONVERT      face pixels -> tensor data: MatImage.toNDArray(), the float conversion of
+//                LivenessPreprocessor, a BufferedImage copy of MatImageFactory; part of PREPROCESS
+//                except for the copy
+//   PREPROCESS   face image -> input tensor (LivenessTranslator)
+//   FORWARD      liveness model forward of one image or one batch
+//   POSTPROCESS  output tensor -> fake score
+// Native memory gauges of the process and of the running streams come from NativeMemory.
+// Readable through JMX (LivenessDetect:type=Metrics) and as Prometheus text, see writePrometheus().
+public final class Metrics implements MetricsMXBean {
+	private static final Logger logger = LoggerFactory.getLogger(Metrics.class);
+	public static final String OBJECT_NAME = "LivenessDetect:type=Metrics";
+
+	public enum Stage {
+		DECODE, DETECT, CROP, CONVERT, PREPROCESS, FORWARD, POSTPROCESS;
+
+		final String label = name().toLowerCase(Locale.ROOT);
+	}
+
+	private static final Metrics INSTANCE = new Metrics();
+	private static final double[] QUANTILES = {0.5, 0.9, 0.95, 0.99, 0.999};
+	private final LatencyHistogram[] stages = new LatencyHistogram[Stage.values().length];
+	private final LongAdder faces = new LongAdder();
+	private final LongAdder dropped = new LongAdder();
+	// recent rates, refreshed at most once a second by the readers
+	private long rateNanos = System.nanoTime();
+	private long rateFrames = 0;
+	private long rateFaces = 0;
+	private double framesPerSecond = 0;
+	private double facesPerSecond = 0;
+	private static HttpServer httpServer = null;
+
+	private Metrics()
+	{
+		for (int i = 0; i < stages.length; i++) {
+			stages[i] = new LatencyHistogram();
+		}
+	}
+
+	public static Metrics get()
+	{
+		return INSTANCE;
+	}
+
+	public static void record(Stage stage, long nanos)
+	{
+		INSTANCE.stages[stage.ordinal()].record(nanos);
+	}
+
+	public static void addFaces(int n)
+	{
+		INSTANCE.faces.add(n);
+	}
+
+	public static void addDroppedFrames(long n)
+	{
+		INSTANCE.dropped.add(n);
+	}
+
+	public LatencyHistogram getHistogram(Stage stage)
+	{
+		return stages[stage.ordinal()];
+	}
+
+	// every decoded frame is a frame
+	@Override
+	public long getFrames()
+	{
+		return getHistogram(Stage.DECODE).getCount();
+	}
+
+	@Override
+	public long getFaces()
+	{
+		return faces.sum();
+	}
+
+	@Override
+	public long getDroppedFrames()
+	{
+		return dropped.sum();
+	}
+
+	@Override
+	public synchronized double getFramesPerSecond()
+	{
+		updateRates();
+		return framesPerSecond;
+	}
+
+	@Override
+	public synchronized double getFacesPerSecond()
+	{
+		updateRates();
+		return facesPerSecond;
+	}
+
+	private void updateRates()
+	{
+		long now = System.nanoTime();
+		long elapsed = now - rateNanos;
+		if (elapsed < TimeUnit.SECONDS.toNanos(1)) return;
+		long frames = getFrames();
+		long faceCount = getFaces();
+		framesPerSecond = (frames - rateFrames) * 1e9 / elapsed;
+		facesPerSecond = (faceCount - rateFaces) * 1e9 / elapsed;
+		rateNanos = now;
+		rateFrames = frames;
+		rateFaces = faceCount;
+	}
+
+	@Override
+	public long getNativeBytes()
+	{
+		return Pointer.totalBytes();
+	}
+
+	@Override
+	public long getPhysicalBytes()
+	{
+		return Pointer.physicalBytes();
+	}
+
+	@Override
+	public Map<String, Long> getStreamNativeGrowth()
+	{
+		Map<String, Long> map = new LinkedHashMap<String, Long>();
+		for (NativeMemory.Stream stream : NativeMemory.getStreams()) {
+			map.put(stream.getName(), stream.getNativeGrowth());
+		}
+		return map;
+	}
+
+	@Override
+	public Map<String, Long> getStageCounts()
+	{
+		Map<String, Long> map = new LinkedHashMap<String, Long>();
+		for (Stage s : Stage.values()) {
+			map.put(s.label, getHistogram(s).getCount());
+		}
+		return map;
+	}
+
+	@Override
+	public Map<String, Double> getMeanMillis()
+	{
+		Map<String, Double> map = new LinkedHashMap<String, Double>();
+		for (Stage s : Stage.values()) {
+			map.put(s.label, getHistogram(s).getMeanNanos() / 1e6);
+		}
+		return map;
+	}
+
+	@Override
+	public Map<String, Double> getP50Millis()
+	{
+		return percentileMillis(0.5);
+	}
+
+	@Override
+	public Map<String, Double> getP99Millis()
+	{
+		return percentileMillis(0.99);
+	}
+
+	@Override
+	public Map<String, Double> getMaxMillis()
+	{
+		Map<String, Double> map = new LinkedHashMap<String, Double>();
+		for (Stage s : Stage.values()) {
+			map.put(s.label, getHistogram(s).getMaxNanos() / 1e6);
+		}
+		return map;
+	}
+
+	private Map<String, Double> percentileMillis(double q)
+	{
+		Map<String, Double> map = new LinkedHashMap<String, Double>();
+		for (Stage s : Stage.values()) {
+			map.put(s.label, getHistogram(s).percentileNanos(q) / 1e6);
+		}
+		return map;
+	}
+
+	// drops everything recorded so far, e.g. the warm-up runs
+	@Override
+	public synchronized void reset()
+	{
+		for (LatencyHistogram h : stages) {
+			h.reset();
+		}
+		faces.reset();
+		dropped.reset();
+		rateNanos = System.nanoTime();
+		rateFrames = 0;
+		rateFaces = 0;
+		framesPerSecond = 0;
+		facesPerSecond = 0;
+	}
+
+	// Prometheus text exposition format 0.0.4, stage latencies as summaries in seconds
+	public String writePrometheus()
+	{
+		StringBuilder sb = new StringBuilder(4096);
+		sb.append("# HELP liveness_stage_seconds Latency of the frame processing stages.\n");
+		sb.append("# TYPE liveness_stage_seconds summary\n");
+		for (Stage s : Stage.values()) {
+			LatencyHistogram h = getHistogram(s);
+			for (double q : QUANTILES) {
+				sb.append("liveness_stage_seconds{stage=\"").append(s.label).append("\",quantile=\"").append(q).append("\"} ")
+					.append(seconds(h.percentileNanos(q))).append('\n');
+			}
+			sb.append("liveness_stage_seconds_sum{stage=\"").append(s.label).append("\"} ")
+				.append(seconds(h.getSumNanos())).append('\n');
+			sb.append("liveness_stage_seconds_count{stage=\"").append(s.label).append("\"} ")
+				.append(h.getCount()).append('\n');
+		}
+		counter(sb, "liveness_frames_total", "Decoded frames.", getFrames());
+		counter(sb, "liveness_faces_total", "Detected faces.", getFaces());
+		counter(sb, "liveness_dropped_frames_total", "Camera frames replaced by a newer one before being processed.", getDroppedFrames());
+		gauge(sb, "liveness_frames_per_second", "Recent decoded frame rate.", getFramesPerSecond());
+		gauge(sb, "liveness_faces_per_second", "Recent detected face rate.", getFacesPerSecond());
+		gauge(sb, "liveness_native_bytes", "Native bytes tracked by JavaCPP.", getNativeBytes());
+		gauge(sb, "liveness_physical_bytes", "Resident set size of the process.", getPhysicalBytes());
+		streamGauge(sb, "liveness_stream_frames", "Frames of the running streams.", NativeMemory.Stream::getFrames);
+		streamGauge(sb, "liveness_stream_native_bytes", "Native bytes tracked by JavaCPP after the last frame of the stream.", NativeMemory.Stream::getNativeBytes);
+		streamGauge(sb, "liveness_stream_native_peak_bytes", "Peak native bytes tracked by JavaCPP while the stream runs.", NativeMemory.Stream::getNativePeak);
+		streamGauge(sb, "liveness_stream_native_growth_bytes", "Native bytes tracked by JavaCPP gained since the stream started.", NativeMemory.Stream::getNativeGrowth);
+		streamGauge(sb, "liveness_stream_physical_peak_bytes", "Peak resident set size while the stream runs.", NativeMemory.Stream::getPhysicalPeak);
+		return sb.toString();
+	}
+
+	private static void counter(StringBuilder sb, String name, String help, long value)
+	{
+		sb.append("# HELP ").append(name).append(' ').append(help).append('\n');
+		sb.append("# TYPE ").append(name).append(" counter\n");
+		sb.append(name).append(' ').append(value).append('\n');
+	}
+
+	private static void gauge(StringBuilder sb, String name, String help, double value)
+	{
+		sb.append("# HELP ").append(name).append(' ').append(help).append('\n');
+		sb.append("# TYPE ").append(name).append(" gauge\n");
+		sb.append(name).append(' ').append(String.format(Locale.ROOT, "%.3f", value)).append('\n');
+	}
+
+	private static void streamGauge(StringBuilder sb, String name, String help, ToLongFunction<NativeMemory.Stream> value)
+	{
+		sb.append("# HELP ").append(name).append(' ').append(help).append('\n');
+		sb.append("# TYPE ").append(name).append(" gauge\n");
+		for (NativeMemory.Stream stream : NativeMemory.getStreams()) {
+			sb.append(name).append("{stream=\"").append(labelValue(stream.getName())).append("\"} ")
+				.append(value.applyAsLong(stream)).append('\n');
+		}
+	}
+
+	// backslash, double quote and line feed are escaped in label values
+	private static String labelValue(String value)
+	{
+		return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+	}
+
+	private static String seconds(long nanos)
+	{
+		return String.format(Locale.ROOT, "%.6f", nanos / 1e9);
+	}
+
+	// register the MBean on the platform MBean server, false if it failed
+	public static boolean registerMBean()
+	{
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName name = new ObjectName(OBJECT_NAME);
+			if (!server.isRegistered(name)) {
+				server.registerMBean(INSTANCE, name);
+			}
+			return true;
+		} catch (JMException e) {
+			logger.debug(e.toString());
+			return false;
+		}
+	}
+
+	// GET /metrics handler, also mounted by LivenessServer
+	public static void handle(HttpExchange ex) throws IOException
+	{
+		byte[] bytes = INSTANCE.writePrometheus().getBytes(StandardCharsets.UTF_8);
+		ex.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+		ex.sendResponseHeaders(200, bytes.length);
+		try (OutputStream os = ex.getResponseBody()) {
+			os.write(bytes);
+		}
+	}
+
+	// standalone /metrics endpoint on loopback for the modes without LivenessServer
+	public static synchronized void startHttpServer(int port) throws IOException
+	{
+		if (httpServer != null) return;
+		httpServer = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 8);
+		httpServer.createContext("/metrics", Metrics::handle);
+		// the scrapes are rare and short, the server's own thread serves them
+		httpServer.start();
+		logger.info("metrics on http://" + httpServer.getAddress().getHostString() + ":"
+				+ httpServer.getAddress().getPort() + "/metrics");
+	}
+
+	public static synchronized void stopHttpServer()
+	{
+		if (httpServer != null) {
+			httpServer.stop(0);
+			httpServer = null;
+		}
+	}
+}
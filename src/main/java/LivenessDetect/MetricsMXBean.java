@@ -0,0 +1,36 @@
+package LivenessDetect;
+
+import java.util.Map;
+
+// JMX view of Metrics, registered as LivenessDetect:type=Metrics.
+// The latency maps are keyed by stage name, values in milliseconds.
+public interface MetricsMXBean {
+	long getFrames();
+
+	long getFaces();
+
+	long getDroppedFrames();
+
+	double getFramesPerSecond();
+
+	double getFacesPerSecond();
+
+	long getNativeBytes();
+
+	long getPhysicalBytes();
+
+	// tracked native bytes gained by every running stream since it started, keyed by stream name
+	Map<String, Long> getStreamNativeGrowth();
+
+	Map<String, Long> getStageCounts();
+
+	Map<String, Double> getMeanMillis();
+
+	Map<String, Double> getP50Millis();
+
+	Map<String, Double> getP99Millis();
+
+	Map<String, Double> getMaxMillis();
+
+	void reset();
+}
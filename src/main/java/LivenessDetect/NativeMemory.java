@@ -0,0 +1,180 @@
+package LivenessDetect;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.bytedeco.javacpp.Pointer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+// Native memory of the process and of the frame streams.
+// Pointer.totalBytes() counts what JavaCPP allocated and still tracks (Mat headers, Size, Scalar, pointers
+// made with a size, ...), Pointer.physicalBytes() is the resident set size of the process.
+// The frame loops open a PointerScope per frame, so the temporaries of a frame are freed when the frame is done
+// instead of when the GC finalizes them. An object that lives longer than one frame but may be created
+// while a scope is open (lazily made buffers, cached headers, ThreadLocal workspaces) must go through keep(),
+// or the scope frees it under its owner at the end of the frame.
+public final class NativeMemory {
+	private static final Logger logger = LoggerFactory.getLogger(NativeMemory.class);
+	// RSS is read from /proc, it is sampled every this many frames only
+	private static final int PHYSICAL_SAMPLE_FRAMES = 16;
+	// growth that still passes the leak check, RSS gets more room for the Java heap and the allocator arenas
+	public static final long LEAK_NATIVE_TOLERANCE = 1L << 20;
+	public static final long LEAK_PHYSICAL_TOLERANCE = 64L << 20;
+	private static final List<Stream> streams = new CopyOnWriteArrayList<Stream>();
+
+	private NativeMemory()
+	{
+	}
+
+	// keep pointer alive when the PointerScope it was made in closes, it's freed by close() or the GC
+	public static <P extends Pointer> P keep(P pointer)
+	{
+		if (pointer != null) {
+			pointer.retainReference();
+		}
+		return pointer;
+	}
+
+	// start accounting of a stream, leakCheckFrames 0 for no leak check
+	public static Stream open(String name, int leakCheckFrames)
+	{
+		if (leakCheckFrames < 0) {
+			throw new IllegalArgumentException("leak check frames must not be negative, " + leakCheckFrames);
+		}
+		Stream stream = new Stream(name, leakCheckFrames);
+		streams.add(stream);
+		return stream;
+	}
+
+	// failed leak check of a stream
+	public static final class LeakException extends IllegalStateException {
+		private static final long serialVersionUID = 1L;
+
+		public LeakException(String message)
+		{
+			super(message);
+		}
+	}
+
+	// streams that are running
+	public static List<Stream> getStreams()
+	{
+		return streams;
+	}
+
+	// Per frame accounting of one stream, frame() is called by the stream's loop after the frame's scope closed.
+	// The numbers are process wide, a stream sees the memory of the other streams too; what is its own is
+	// the growth while it runs.
+	// With a leak check of n frames, the first n frames warm up caches, pools and lazily made buffers,
+	// the bytes after them are the baseline. Every n frames later the bytes are compared with it, and frame()
+	// throws LeakException when the tracked native bytes grew more than LEAK_NATIVE_TOLERANCE
+	// or RSS more than LEAK_PHYSICAL_TOLERANCE.
+	public static final class Stream implements AutoCloseable {
+		private final String name;
+		private final int leakCheckFrames;
+		private final long startBytes;
+		private volatile long frames = 0;
+		private volatile long nativeBytes;
+		private volatile long nativePeak;
+		private volatile long physicalBytes;
+		private volatile long physicalPeak;
+		private long baselineNative = -1;
+		private long baselinePhysical = -1;
+
+		private Stream(String name, int leakCheckFrames)
+		{
+			this.name = name;
+			this.leakCheckFrames = leakCheckFrames;
+			startBytes = Pointer.totalBytes();
+			nativeBytes = startBytes;
+			nativePeak = startBytes;
+			physicalBytes = Pointer.physicalBytes();
+			physicalPeak = physicalBytes;
+		}
+
+		public String getName()
+		{
+			return name;
+		}
+
+		public long getFrames()
+		{
+			return frames;
+		}
+
+		public long getNativeBytes()
+		{
+			return nativeBytes;
+		}
+
+		public long getNativePeak()
+		{
+			return nativePeak;
+		}
+
+		// tracked native bytes gained since the stream started
+		public long getNativeGrowth()
+		{
+			return nativeBytes - startBytes;
+		}
+
+		public long getPhysicalBytes()
+		{
+			return physicalBytes;
+		}
+
+		public long getPhysicalPeak()
+		{
+			return physicalPeak;
+		}
+
+		public void frame()
+		{
+			long frame = frames + 1;
+			frames = frame;
+			long bytes = Pointer.totalBytes();
+			nativeBytes = bytes;
+			if (bytes > nativePeak) nativePeak = bytes;
+			boolean check = leakCheckFrames > 0 && frame % leakCheckFrames == 0;
+			if (check || frame % PHYSICAL_SAMPLE_FRAMES == 0) {
+				long physical = Pointer.physicalBytes();
+				physicalBytes = physical;
+				if (physical > physicalPeak) physicalPeak = physical;
+			}
+			if (check) {
+				checkLeak(frame);
+			}
+		}
+
+		private void checkLeak(long frame)
+		{
+			if (baselineNative < 0) {
+				baselineNative = nativeBytes;
+				baselinePhysical = physicalBytes;
+				System.out.println(name + ": leak check baseline after " + frame + " frames, native "
+						+ Pointer.formatBytes(baselineNative) + ", rss " + Pointer.formatBytes(baselinePhysical));
+				return;
+			}
+			long nativeGrowth = nativeBytes - baselineNative;
+			long physicalGrowth = physicalBytes - baselinePhysical;
+			logger.debug(name + ": " + frame + " frames, native " + Pointer.formatBytes(nativeBytes)
+					+ ", rss " + Pointer.formatBytes(physicalBytes));
+			if (nativeGrowth > LEAK_NATIVE_TOLERANCE || physicalGrowth > LEAK_PHYSICAL_TOLERANCE) {
+				String message = name + ": native memory leak, after " + (frame - leakCheckFrames) + " frames native grew "
+						+ Pointer.formatBytes(nativeGrowth) + " and rss " + Pointer.formatBytes(physicalGrowth);
+				System.out.println(message);
+				logger.info(message);
+				throw new LeakException(message);
+			}
+		}
+
+		@Override
+		public void close()
+		{
+			streams.remove(this);
+			logger.debug(name + ": " + frames + " frames, native peak " + Pointer.formatBytes(nativePeak)
+					+ ", rss peak " + Pointer.formatBytes(physicalPeak));
+		}
+	}
+}
@@ -0,0 +1,181 @@
+package LivenessDetect;
+
+import static org.bytedeco.opencv.global.opencv_imgproc.COLOR_BGR2GRAY;
+import static org.bytedeco.opencv.global.opencv_imgproc.COLOR_GRAY2BGR;
+import static org.bytedeco.opencv.global.opencv_imgproc.CV_FONT_HERSHEY_SIMPLEX;
+import static org.bytedeco.opencv.global.opencv_imgproc.LINE_8;
+import static org.bytedeco.opencv.global.opencv_imgproc.LINE_AA;
+import static org.bytedeco.opencv.global.opencv_imgproc.cvtColor;
+import static org.bytedeco.opencv.global.opencv_imgproc.ellipse;
+import static org.bytedeco.opencv.global.opencv_imgproc.putText;
+import static org.bytedeco.opencv.global.opencv_imgproc.rectangle;
+
+import java.util.concurrent.TimeUnit;
+
+import org.bytedeco.javacpp.PointerScope;
+import org.bytedeco.javacv.CanvasFrame;
+import org.bytedeco.opencv.opencv_core.Mat;
+import org.bytedeco.opencv.opencv_core.Point;
+import org.bytedeco.opencv.opencv_core.Rect;
+import org.bytedeco.opencv.opencv_core.Scalar;
+import org.bytedeco.opencv.opencv_core.Size;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+// Face fit overlay of the camera and video previews: the square frame in gray outside the ellipse mask,
+// the hint, the ellipse, the face box and the result, shown on a CanvasFrame.
+// Without a display rate show() draws on the calling thread, as the frame loops always did.
+// With one the overlay has a render thread of its own: show() copies the frame and returns, the render
+// thread draws only the latest frame it was given, at most displayFps times a second, and frames given
+// in between are dropped. Detection and inference never wait for the drawing or the window.
+public class PreviewRenderer implements AutoCloseable {
+	private static final Logger logger = LoggerFactory.getLogger(PreviewRenderer.class);
+	// result of a face outside the ellipse
+	public static final String FIT_FACE = "Fit Face!";
+	private static final String HINT = "Please fit face in ellipse area... ";
+	private static final Scalar TEXT_COLOR = new Scalar(0, 255, 0, 0);
+	private static final Scalar ELLIPSE_WAIT_COLOR = new Scalar(255, 0, 255, 0);
+	private static final Scalar ELLIPSE_DONE_COLOR = new Scalar(0, 255, 0, 0);
+	private static final Scalar BOX_COLOR = new Scalar(0, 255, 0, 0);
+	private static final Point HINT_ORIGIN = new Point(10, 30);
+	private final CanvasFrame canvas;
+	private final Mat mask;
+	private final Point ellipseCenter;
+	private final Size ellipseAxes;
+	private final Point resultOrigin;
+	private final Mat gray = new Mat();
+	private final Mat grayBgr = new Mat();
+	private final Rect box = new Rect();
+	private final long intervalNanos;
+	private final Thread thread;
+	// latest frame of show(), swapped with drawing by the render thread
+	private Mat pending = new Mat();
+	private Mat drawing = new Mat();
+	private faceBox pendingBox = null;
+	private String pendingResult = null;
+	private boolean hasPending = false;
+	private boolean closed = false;
+
+	// mask is 8 bit, non-zero outside the ellipse; displayFps 0 to draw on the thread of show()
+	public PreviewRenderer(CanvasFrame canvas, Mat mask, int ellipseCenterX, int ellipseCenterY,
+			int ellipseSizeX, int ellipseSizeY, double displayFps)
+	{
+		if (displayFps < 0) {
+			throw new IllegalArgumentException("display rate must not be negative, " + displayFps);
+		}
+		this.canvas = canvas;
+		this.mask = mask;
+		int size = mask.cols();
+		ellipseCenter = new Point(ellipseCenterX, ellipseCenterY);
+		ellipseAxes = new Size(ellipseSizeX, ellipseSizeY);
+		resultOrigin = new Point(size / 2 - 50, size - 30);
+		if (displayFps > 0) {
+			intervalNanos = (long) (TimeUnit.SECONDS.toNanos(1) / displayFps);
+			thread = new Thread(this::run, "preview-renderer");
+			thread.setDaemon(true);
+			thread.start();
+		} else {
+			intervalNanos = 0;
+			thread = null;
+		}
+	}
+
+	public boolean isVisible()
+	{
+		return canvas.isVisible();
+	}
+
+	// Show square frame with the face box (null for none) and the result (null while there is no face).
+	// On the render thread the frame is copied, the caller may reuse it right away
+	public void show(Mat frame, faceBox facebox, String result)
+	{
+		if (thread == null) {
+			draw(frame, facebox, result);
+			canvas.showImage(ImageConverter.toFrame(frame));
+			return;
+		}
+		synchronized (this) {
+			frame.copyTo(pending);
+			pendingBox = facebox;
+			pendingResult = result;
+			hasPending = true;
+		}
+	}
+
+	private void run()
+	{
+		long next = System.nanoTime();
+		try {
+			for (;;) {
+				long wait = next - System.nanoTime();
+				if (wait > 0) {
+					TimeUnit.NANOSECONDS.sleep(wait);
+				}
+				next = Math.max(next + intervalNanos, System.nanoTime());
+				faceBox facebox;
+				String result;
+				synchronized (this) {
+					if (closed) return;
+					if (!hasPending) continue;
+					Mat m = drawing;
+					drawing = pending;
+					pending = m;
+					facebox = pendingBox;
+					result = pendingResult;
+					hasPending = false;
+				}
+				try (PointerScope scope = new PointerScope()) {
+					draw(drawing, facebox, result);
+					canvas.showImage(ImageConverter.toFrame(drawing));
+				}
+			}
+		} catch (InterruptedException e) {
+			// closed
+		} catch (RuntimeException e) {
+			logger.info("preview renderer stopped, " + e);
+		}
+	}
+
+	private void draw(Mat frame, faceBox facebox, String result)
+	{
+		cvtColor(frame, gray, COLOR_BGR2GRAY);
+		cvtColor(gray, grayBgr, COLOR_GRAY2BGR);
+		grayBgr.copyTo(frame, mask);
+		putText(frame, HINT, HINT_ORIGIN, CV_FONT_HERSHEY_SIMPLEX, 0.7, TEXT_COLOR, 1, LINE_AA, false);
+		boolean done = result != null && !result.equals(FIT_FACE);
+		ellipse(frame, ellipseCenter, ellipseAxes, 0, 0, 360, done ? ELLIPSE_DONE_COLOR : ELLIPSE_WAIT_COLOR, 2, LINE_8, 0);
+		if (facebox != null) {
+			box.x(facebox.x_left).y(facebox.y_top).width(facebox.x_right - facebox.x_left).height(facebox.y_bottom - facebox.y_top);
+			rectangle(frame, box, BOX_COLOR);
+		}
+		if (result != null) {
+			putText(frame, result, resultOrigin, CV_FONT_HERSHEY_SIMPLEX, 1, TEXT_COLOR, 1, LINE_AA, false);
+		}
+	}
+
+	// stops the render thread and closes the window
+	@Override
+	public void close()
+	{
+		synchronized (this) {
+			closed = true;
+		}
+		if (thread != null) {
+			thread.interrupt();
+			try {
+				thread.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		canvas.dispose();
+		pending.close();
+		drawing.close();
+		gray.close();
+		grayBgr.close();
+		box.close();
+		ellipseCenter.close();
+		ellipseAxes.close();
+		resultOrigin.close();
+	}
+}
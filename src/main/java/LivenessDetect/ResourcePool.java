@@ -0,0 +1,64 @@
+package LivenessDetect;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.function.Supplier;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+// Bounded pool of objects that must not be used by two threads at the same time
+// (DJL Predictor, OpenCV dnn Net ...).
+// acquire() blocks until an object is free, every acquire() must be paired with release().
+public class ResourcePool<T extends AutoCloseable> implements AutoCloseable {
+	private static final Logger logger = LoggerFactory.getLogger(ResourcePool.class);
+	private final BlockingQueue<T> idle;
+	private final List<T> all;
+
+	public ResourcePool(int size, Supplier<T> factory)
+	{
+		if (size < 1) {
+			throw new IllegalArgumentException("pool size must be positive, " + size);
+		}
+		idle = new ArrayBlockingQueue<T>(size);
+		all = new ArrayList<T>(size);
+		for (int i = 0; i < size; i++) {
+			T item = factory.get();
+			all.add(item);
+			idle.add(item);
+		}
+	}
+
+	public T acquire() throws InterruptedException
+	{
+		return idle.take();
+	}
+
+	public void release(T item)
+	{
+		if (item == null) return;
+		if (!idle.offer(item)) {
+			logger.debug("pool is full, released item is not from this pool");
+		}
+	}
+
+	public int size()
+	{
+		return all.size();
+	}
+
+	@Override
+	public void close()
+	{
+		for (T item : all) {
+			try {
+				item.close();
+			} catch (Exception e) {
+				logger.debug(e.toString());
+			}
+		}
+		all.clear();
+		idle.clear();
+	}
+}
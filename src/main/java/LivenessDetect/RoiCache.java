@@ -0,0 +1,61 @@
+package LivenessDetect;
+
+import org.bytedeco.opencv.opencv_core.Mat;
+import org.bytedeco.opencv.opencv_core.Rect;
+
+// Reusable ROI headers of one fixed rectangle.
+// new Mat(frame, rect) allocates a cv::Mat header with its JavaCPP deallocator every frame;
+// get() gives the header made for the same frame buffer before, and makes a new one only for a
+// buffer it has not seen (or one that was reallocated). The frame sources of this project
+// reuse a few buffers, so after the first frames no header is allocated.
+// The headers are kept past the PointerScope of the frame that made them.
+// Not thread safe, one per loop.
+public class RoiCache implements AutoCloseable {
+	private final Rect rect;
+	private final Mat[] sources;
+	private final long[] data;
+	private final Mat[] rois;
+	private int next = 0;
+
+	// capacity is the number of frame buffers that are remembered
+	public RoiCache(int x, int y, int width, int height, int capacity)
+	{
+		if (capacity < 1) {
+			throw new IllegalArgumentException("capacity must be positive, " + capacity);
+		}
+		this.rect = NativeMemory.keep(new Rect(x, y, width, height));
+		this.sources = new Mat[capacity];
+		this.data = new long[capacity];
+		this.rois = new Mat[capacity];
+	}
+
+	// the rectangle of frame, a view sharing its data
+	public Mat get(Mat frame)
+	{
+		long address = frame.data().address();
+		for (int i = 0; i < sources.length; i++) {
+			if (sources[i] == frame && data[i] == address) {
+				return rois[i];
+			}
+		}
+		// least recently added slot
+		int i = next;
+		next = (next + 1) % sources.length;
+		if (rois[i] != null) rois[i].close();
+		sources[i] = frame;
+		data[i] = address;
+		rois[i] = NativeMemory.keep(new Mat(frame, rect));
+		return rois[i];
+	}
+
+	@Override
+	public void close()
+	{
+		for (int i = 0; i < rois.length; i++) {
+			if (rois[i] != null) rois[i].close();
+			rois[i] = null;
+			sources[i] = null;
+		}
+		rect.close();
+	}
+}
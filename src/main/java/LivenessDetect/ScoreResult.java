@@ -0,0 +1,147 @@
+package LivenessDetect;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+// Result of scoring one image or video file, written as one JSON line or one CSV row
+public class ScoreResult {
+	public enum Verdict { LIVE, FAKE, NO_FACE, ERROR }
+
+	public static final String CSV_HEADER =
+			"path,type,verdict,score,x_left,y_top,x_right,y_bottom,frames,decode_ms,detect_ms,infer_ms,total_ms,error";
+	final String path;
+	// "image" or "video"
+	final String type;
+	Verdict verdict = Verdict.ERROR;
+	// fake score of the image, mean fake score of the scored video frames
+	float fakeScore = Float.NaN;
+	// last scored face in full resolution coordinates, null if none
+	faceBox box = null;
+	int frames = 0;
+	long decodeNanos = 0;
+	long detectNanos = 0;
+	long inferNanos = 0;
+	long totalNanos = 0;
+	String error = null;
+
+	ScoreResult(String path, String type) {
+		this.path = path;
+		this.type = type;
+	}
+
+	public String getPath()
+	{
+		return path;
+	}
+
+	public Verdict getVerdict()
+	{
+		return verdict;
+	}
+
+	public float getFakeScore()
+	{
+		return fakeScore;
+	}
+
+	public int getFrames()
+	{
+		return frames;
+	}
+
+	public long getTotalNanos()
+	{
+		return totalNanos;
+	}
+
+	void fail(Exception e)
+	{
+		verdict = Verdict.ERROR;
+		error = e.getMessage() != null ? e.getMessage() : e.toString();
+	}
+
+	public String toJson()
+	{
+		StringBuilder sb = new StringBuilder(256);
+		sb.append("{\"path\":").append(jsonString(path));
+		sb.append(",\"type\":").append(jsonString(type));
+		sb.append(",\"verdict\":").append(jsonString(verdict.name()));
+		sb.append(",\"score\":").append(Float.isNaN(fakeScore) ? "null" : Float.toString(fakeScore));
+		if (box == null) {
+			sb.append(",\"box\":null");
+		} else {
+			sb.append(",\"box\":[").append(box.x_left).append(',').append(box.y_top).append(',')
+					.append(box.x_right).append(',').append(box.y_bottom).append(']');
+		}
+		sb.append(",\"frames\":").append(frames);
+		sb.append(",\"decode_ms\":").append(millis(decodeNanos));
+		sb.append(",\"detect_ms\":").append(millis(detectNanos));
+		sb.append(",\"infer_ms\":").append(millis(inferNanos));
+		sb.append(",\"total_ms\":").append(millis(totalNanos));
+		sb.append(",\"error\":").append(error == null ? "null" : jsonString(error));
+		return sb.append('}').toString();
+	}
+
+	public String toCsv()
+	{
+		StringBuilder sb = new StringBuilder(256);
+		sb.append(csvString(path)).append(',').append(type).append(',').append(verdict.name()).append(',');
+		sb.append(Float.isNaN(fakeScore) ? "" : Float.toString(fakeScore)).append(',');
+		if (box == null) {
+			sb.append(",,,,");
+		} else {
+			sb.append(box.x_left).append(',').append(box.y_top).append(',')
+					.append(box.x_right).append(',').append(box.y_bottom).append(',');
+		}
+		sb.append(frames).append(',');
+		sb.append(millis(decodeNanos)).append(',').append(millis(detectNanos)).append(',');
+		sb.append(millis(inferNanos)).append(',').append(millis(totalNanos)).append(',');
+		sb.append(error == null ? "" : csvString(error));
+		return sb.toString();
+	}
+
+	private static String millis(long nanos)
+	{
+		return String.format(Locale.ROOT, "%.3f", nanos / (double) TimeUnit.MILLISECONDS.toNanos(1));
+	}
+
+	static String jsonString(String s)
+	{
+		StringBuilder sb = new StringBuilder(s.length() + 2).append('"');
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			switch (c) {
+			case '"':
+				sb.append("\\\"");
+				break;
+			case '\\':
+				sb.append("\\\\");
+				break;
+			case '\n':
+				sb.append("\\n");
+				break;
+			case '\r':
+				sb.append("\\r");
+				break;
+			case '\t':
+				sb.append("\\t");
+				break;
+			default:
+				if (c < 0x20) {
+					sb.append(String.format(Locale.ROOT, "\\u%04x", (int) c));
+				} else {
+					sb.append(c);
+				}
+			}
+		}
+		return sb.append('"').toString();
+	}
+
+	private static String csvString(String s)
+	{
+		if (s.indexOf(',') < 0 && s.indexOf('"') < 0 && s.indexOf('\n') < 0 && s.indexOf('\r') < 0) {
+			return s;
+		}
+		return '"' + s.replace("\"", "\"\"") + '"';
+	}
+}
@@ -0,0 +1,77 @@
+package LivenessDetect;
+
+import ai.djl.ndarray.NDArray;
+import ai.djl.ndarray.NDManager;
+
+import static org.bytedeco.opencv.global.opencv_imgcodecs.imread;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.FloatBuffer;
+
+import org.bytedeco.opencv.opencv_core.Mat;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+// Parity of the fused OpenCV preprocessing with the NDArray chain of LivenessTranslator.processInputNDArray().
+// Both resize bilinear in float and normalize with the same mean and std, so they differ only by float rounding.
+// The tolerance is in normalized units, where one 8 bit level is 1 / STD, about 0.017: the tensors must agree
+// to well below a tenth of a level.
+public class LivenessPreprocessorTest {
+	private static final float TOLERANCE = 1e-3f;
+	private static NDManager manager;
+
+	@BeforeClass
+	public static void setUp()
+	{
+		manager = NDManager.newBaseManager();
+	}
+
+	@AfterClass
+	public static void tearDown()
+	{
+		manager.close();
+	}
+
+	@Test
+	public void realFaceMatchesReference()
+	{
+		assertParity("model/real_48.png");
+	}
+
+	@Test
+	public void maskFaceMatchesReference()
+	{
+		assertParity("model/2dmask_2.png");
+	}
+
+	private static void assertParity(String path)
+	{
+		Mat bgr = imread(path);
+		assertTrue("can not read " + path, !bgr.empty());
+		try {
+			float[] expected;
+			try (NDArray reference = LivenessTranslator.processInputNDArray(manager, new MatImage(bgr))) {
+				expected = reference.toFloatArray();
+			}
+			FloatBuffer fused = LivenessPreprocessor.get().process(bgr);
+			int size = LivenessPreprocessor.INPUT_SIZE;
+			assertEquals(path, 3 * size * size, expected.length);
+			assertEquals(path, expected.length, fused.remaining());
+			float maxDiff = 0;
+			int maxIndex = 0;
+			for (int i = 0; i < expected.length; i++) {
+				float diff = Math.abs(fused.get(i) - expected[i]);
+				if (diff > maxDiff) {
+					maxDiff = diff;
+					maxIndex = i;
+				}
+			}
+			assertTrue(path + ": largest difference " + maxDiff + " at channel " + maxIndex / (size * size)
+					+ ", pixel " + maxIndex % (size * size), maxDiff <= TOLERANCE);
+		} finally {
+			bgr.close();
+		}
+	}
+}